@@ -0,0 +1,146 @@
+package com.protomaps.basemap.bench;
+
+import com.carrotsearch.hppc.LongLongHashMap;
+import com.onthegomap.planetiler.FeatureCollector;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.stats.Stats;
+import com.protomaps.basemap.Basemap;
+import com.protomaps.basemap.feature.CountryCoder;
+import com.protomaps.basemap.feature.QrankDb;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs OSM features through a single layer of the {@link Basemap} profile.
+ *
+ * <p>
+ * The features are generated from the tag distributions in {@code src/jmh/resources/tag-distributions}, one file per
+ * layer. Each line has a relative weight, a geometry type and the tags of one kind of feature, so the mix of features
+ * roughly follows what a layer sees in a real extract.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LayerBenchmark {
+
+  static final int FEATURES = 10_000;
+
+  // somewhere in San Francisco, so country specific rules for the US are exercised
+  private static final double LON = -122.42;
+  private static final double LAT = 37.77;
+  private static final double SIZE = 0.001;
+
+  @Param({"roads", "pois", "landuse", "buildings", "places", "water"})
+  public String layer;
+
+  private Basemap profile;
+  private FeatureCollector.Factory featureCollectorFactory;
+  private SourceFeature[] features;
+
+  @Setup
+  public void setup() throws IOException {
+    var qrankDb = new QrankDb(new LongLongHashMap());
+    profile = new Basemap(qrankDb, CountryCoder.fromJarResource(), null, layer);
+    featureCollectorFactory = new FeatureCollector.Factory(PlanetilerConfig.defaults(), Stats.inMemory());
+    features = generate(readDistribution(layer), FEATURES, new Random(0));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FEATURES)
+  public void processFeatures(Blackhole blackhole) {
+    for (SourceFeature sf : features) {
+      var collector = featureCollectorFactory.get(sf);
+      profile.processFeature(sf, collector);
+      blackhole.consume(collector);
+    }
+  }
+
+  record Entry(int weight, String geometry, Map<String, Object> tags) {}
+
+  static List<Entry> readDistribution(String name) throws IOException {
+    String path = "/tag-distributions/" + name + ".tsv";
+    var stream = LayerBenchmark.class.getResourceAsStream(path);
+    if (stream == null) {
+      throw new IOException("Missing tag distribution " + path);
+    }
+    List<Entry> entries = new ArrayList<>();
+    try (var reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank() || line.startsWith("#")) {
+          continue;
+        }
+        String[] columns = line.split("\t");
+        Map<String, Object> tags = new HashMap<>();
+        for (String tag : columns[2].split(";")) {
+          int separator = tag.indexOf('=');
+          tags.put(tag.substring(0, separator), tag.substring(separator + 1));
+        }
+        entries.add(new Entry(Integer.parseInt(columns[0]), columns[1], tags));
+      }
+    }
+    return entries;
+  }
+
+  static SourceFeature[] generate(List<Entry> entries, int count, Random random) {
+    int totalWeight = entries.stream().mapToInt(Entry::weight).sum();
+    List<SourceFeature> result = new ArrayList<>(count);
+    for (Entry entry : entries) {
+      long n = Math.max(1, Math.round((double) count * entry.weight() / totalWeight));
+      for (long i = 0; i < n && result.size() < count; i++) {
+        // layers may add computed tags to a feature, so every feature gets its own copy
+        result.add(SimpleFeature.create(geometry(entry.geometry(), random), new HashMap<>(entry.tags()), "osm", null,
+          result.size() + 1L));
+      }
+    }
+    Collections.shuffle(result, random);
+    return result.toArray(SourceFeature[]::new);
+  }
+
+  private static Geometry geometry(String type, Random random) {
+    double x = LON + random.nextDouble() * 0.1;
+    double y = LAT + random.nextDouble() * 0.1;
+    return switch (type) {
+      case "point" -> GeoUtils.JTS_FACTORY.createPoint(new Coordinate(x, y));
+      case "line" -> GeoUtils.JTS_FACTORY.createLineString(new Coordinate[]{
+        new Coordinate(x, y), new Coordinate(x + SIZE, y + SIZE / 2), new Coordinate(x + 2 * SIZE, y)
+      });
+      case "polygon" -> GeoUtils.JTS_FACTORY.createPolygon(new Coordinate[]{
+        new Coordinate(x, y), new Coordinate(x + SIZE, y), new Coordinate(x + SIZE, y + SIZE),
+        new Coordinate(x, y + SIZE), new Coordinate(x, y)
+      });
+      default -> throw new IllegalArgumentException("Unknown geometry type " + type);
+    };
+  }
+}
@@ -9,6 +9,8 @@ import com.onthegomap.planetiler.util.Downloader;
 import com.onthegomap.planetiler.util.Glob;
 import com.protomaps.basemap.feature.CountryCoder;
 import com.protomaps.basemap.feature.QrankDb;
+import com.protomaps.basemap.feature.RuleIndex;
+import com.protomaps.basemap.feature.WikidataCollector;
 import com.protomaps.basemap.layers.Boundaries;
 import com.protomaps.basemap.layers.Buildings;
 import com.protomaps.basemap.layers.Earth;
@@ -19,8 +21,12 @@ import com.protomaps.basemap.layers.Pois;
 import com.protomaps.basemap.layers.Roads;
 import com.protomaps.basemap.layers.Transit;
 import com.protomaps.basemap.layers.Water;
+import com.protomaps.basemap.names.LanguagePolicy;
+import com.protomaps.basemap.names.OsmNames;
 import com.protomaps.basemap.postprocess.Clip;
+import com.protomaps.basemap.postprocess.NameSplit;
 import com.protomaps.basemap.text.FontRegistry;
+import com.protomaps.basemap.text.TextEngine;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -42,6 +48,11 @@ public class Basemap extends ForwardingProfile {
 
   public Basemap(QrankDb qrankDb, CountryCoder countryCoder, Clip clip,
     String layer) {
+    this(qrankDb, countryCoder, clip, layer, NameSplit.Mode.ALL, false);
+  }
+
+  public Basemap(QrankDb qrankDb, CountryCoder countryCoder, Clip clip,
+    String layer, NameSplit.Mode nameMode, boolean roadStrokes) {
 
     if (layer.isEmpty() || layer.equals(Boundaries.LAYER_NAME)) {
       var admin = new Boundaries();
@@ -87,7 +98,7 @@ public class Basemap extends ForwardingProfile {
     }
 
     if (layer.isEmpty() || layer.equals(Roads.LAYER_NAME)) {
-      var roads = new Roads(countryCoder);
+      var roads = new Roads(countryCoder, roadStrokes);
       registerHandler(roads);
       registerSourceHandler("osm", roads::processOsm);
       registerSourceHandler("pm:overture", roads::processOverture);
@@ -121,6 +132,10 @@ public class Basemap extends ForwardingProfile {
     if (clip != null) {
       registerHandler(clip);
     }
+
+    if (nameMode != NameSplit.Mode.ALL) {
+      registerHandler(new NameSplit(nameMode));
+    }
   }
 
   @Override
@@ -233,6 +248,18 @@ public class Basemap extends ForwardingProfile {
         --clip=<path>           GeoJSON file path to clip tileset (optional)
         --clip-buffer=<n>       Relative buffer around clip polygon (default: 4.0/256.0)
               Use 0 for exact boundary, e.g. --clip-buffer=0
+        --profile-rules         Log per-rule match counts and evaluation time (optional)
+        --qrank-prune           Only keep QRank entries referenced by the input (optional)
+        --pgf-cache=<path>      Keep PGF name encodings in this file between runs, with awt shaping only (optional)
+        --pgf-shaper=<mode>     Shape names with awt (default), clusters, or verify to compare both
+              clusters remembers the awt layout of each cluster, new clusters are still laid out with awt
+        --name-languages=<list> Comma-separated languages of name:* attributes (default: all supported)
+        --name-local-only-below=<n>
+              Below this zoom, only emit English and the local languages of a feature's country (default: 0)
+        --road-strokes          Join connected roads for zooms up to 11 once before tiling (optional)
+        --names=<mode>          Localized name:* attributes: all (default), base to leave them out, or
+              localized to write only them to <output>-names.pmtiles, joined to base tiles by name_key
+              Build both archives from the same input and options, in two runs
 
       Common Planetiler Options:
         --output=<path>         Output file path and format (e.g., output.pmtiles)
@@ -288,10 +315,11 @@ public class Basemap extends ForwardingProfile {
       .addGeoPackageSource("ne", sourcesDir.resolve("natural_earth_vector.gpkg.zip"),
         "https://naciscdn.org/naturalearth/packages/natural_earth_vector.gpkg.zip");
 
+    List<Path> inputPaths = List.of();
     if (!overtureFile.isEmpty()) {
       Path base = args.inputFile("overture", "overture base directory", Path.of("data", "overture"));
       var hivePartitoning = false;
-      var inputPaths = List.of(Path.of(overtureFile));
+      inputPaths = List.of(Path.of(overtureFile));
       if (!overtureFile.endsWith(".parquet")) {
         inputPaths = Glob.of(base).resolve("**", "*.parquet").find();
         hivePartitoning = true;
@@ -324,7 +352,22 @@ public class Basemap extends ForwardingProfile {
         .run();
     }
 
-    var qrankDb = QrankDb.fromCsv(qrankCsv);
+    var qrankDb = QrankDb.fromCsv(qrankCsv, sourcesDir.resolve("qrank.bin"));
+
+    boolean qrankPrune = args.getBoolean("qrank_prune",
+      "Scan the input for wikidata IDs first and only keep their QRank entries", false);
+    if (qrankPrune) {
+      if (!overtureFile.isEmpty()) {
+        qrankDb = qrankDb.retain(WikidataCollector.fromParquet(inputPaths));
+      } else {
+        Path osmPath = args.inputFile("osm_path", "OSM input file", sourcesDir.resolve(area + ".osm.pbf"));
+        if (Files.exists(osmPath)) {
+          qrankDb = qrankDb.retain(WikidataCollector.fromOsm(osmPath, planetiler.config().threads()));
+        } else {
+          LOGGER.warn("Not pruning QRank entries, {} has not been downloaded yet", osmPath);
+        }
+      }
+    }
 
     if (!Files.exists(pgfEncodingZip)) {
       Downloader.create(planetiler.config())
@@ -332,8 +375,15 @@ public class Basemap extends ForwardingProfile {
         .run();
     }
 
+    boolean profileRules = args.getBoolean("profile_rules",
+      "Record per-rule match counts and evaluation time and log the slowest rules at the end", false);
+    if (profileRules) {
+      RuleIndex.enableProfiling(args.getStats());
+    }
+
     FontRegistry fontRegistry = FontRegistry.getInstance();
     fontRegistry.setZipFilePath(pgfEncodingZip.toString());
+    fontRegistry.setEncodingCacheDir(sourcesDir);
 
     Clip clip = null;
     double clipBuffer = args.getDouble("clip_buffer",
@@ -370,7 +420,53 @@ public class Basemap extends ForwardingProfile {
       System.exit(1);
     }
 
-    fontRegistry.loadFontBundle("NotoSansDevanagari-Regular", "1", "Devanagari");
+    fontRegistry.loadFontBundles(List.of(
+      new FontRegistry.BundleSpec("NotoSansDevanagari-Regular", "1", "Devanagari")
+    ));
+
+    String pgfShaper = args.getString("pgf_shaper",
+      "How to shape names for PGF encoding: awt, clusters (awt layout remembered per cluster) or verify " +
+        "(both, logging differences)",
+      "awt");
+    TextEngine.Shaping shaping = TextEngine.Shaping.AWT;
+    try {
+      shaping = TextEngine.Shaping.valueOf(pgfShaper.toUpperCase(Locale.ROOT));
+      TextEngine.setShaping(shaping);
+    } catch (IllegalArgumentException e) {
+      LOGGER.error("Error: --pgf-shaper={} is not a valid option. Possible values are: awt, clusters, verify",
+        pgfShaper);
+      System.exit(1);
+    }
+
+    List<String> nameLanguages = args.getList("name_languages",
+      "Languages of name:* attributes, like de,zh-Hans", OsmNames.allowedLanguages());
+    int nameLocalOnlyBelow = args.getInteger("name_local_only_below",
+      "Zoom below which only English and the local languages of a feature's country are emitted", 0);
+    LanguagePolicy.setCurrent(new LanguagePolicy(nameLanguages, nameLocalOnlyBelow, countryCoder));
+
+    boolean roadStrokes = args.getBoolean("road_strokes",
+      "Join connected roads with the same attributes into strokes once before tiling, for zooms up to 11", false);
+
+    String names = args.getString("names",
+      "Localized name attributes: all, base (without them) or localized (only them, for a companion archive)", "all");
+    NameSplit.Mode nameMode = NameSplit.Mode.ALL;
+    try {
+      nameMode = NameSplit.Mode.valueOf(names.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      LOGGER.error("Error: --names={} is not a valid option. Possible values are: all, base, localized", names);
+      System.exit(1);
+    }
+
+    String pgfCache = args.getString("pgf_cache",
+      "File that keeps PGF name encodings between runs, read at start and written at the end", "");
+    // the cache file does not record how its encodings were shaped, and verifying needs every name to be shaped again
+    if (!pgfCache.isEmpty() && shaping != TextEngine.Shaping.AWT) {
+      LOGGER.warn("Ignoring --pgf-cache={}, it is only used with --pgf-shaper=awt", pgfCache);
+      pgfCache = "";
+    }
+    if (!pgfCache.isEmpty()) {
+      fontRegistry.getEncodingCache().load(Path.of(pgfCache));
+    }
 
     String outputName;
     if (!overtureFile.isEmpty()) {
@@ -383,9 +479,24 @@ public class Basemap extends ForwardingProfile {
     } else {
       outputName = area;
     }
+    if (nameMode == NameSplit.Mode.LOCALIZED) {
+      outputName = outputName + "-names";
+    }
 
-    planetiler.setProfile(new Basemap(qrankDb, countryCoder, clip, layer))
+    planetiler.setProfile(new Basemap(qrankDb, countryCoder, clip, layer, nameMode, roadStrokes))
       .setOutput(Path.of(outputName + ".pmtiles"))
       .run();
+
+    if (profileRules) {
+      RuleIndex.logProfile(50);
+    }
+
+    fontRegistry.getEncodingCache().logStats();
+    if (TextEngine.getShapingMismatches() > 0) {
+      LOGGER.warn("Cluster shaping differed from glyph layout for {} names", TextEngine.getShapingMismatches());
+    }
+    if (!pgfCache.isEmpty()) {
+      fontRegistry.getEncodingCache().save(Path.of(pgfCache));
+    }
   }
 }
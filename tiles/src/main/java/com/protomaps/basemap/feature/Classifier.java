@@ -0,0 +1,383 @@
+package com.protomaps.basemap.feature;
+
+import com.onthegomap.planetiler.expression.Expression;
+import com.onthegomap.planetiler.reader.WithTags;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs the two-stage classification used by layers like Roads, Pois and Places in a single call.
+ *
+ * <p>
+ * The first stage matches a feature against a kind index (e.g., {@code pm:kind}, {@code pm:kindDetail}). A
+ * {@link Carry} function then turns the kind matches into computed tags, and the second stage matches those computed
+ * tags together with the original tags against a zoom index (e.g., {@code pm:minzoom}).
+ * </p>
+ *
+ * <p>
+ * The zoom stage only depends on the few tags its rules look at, so its result is cached per distinct combination of
+ * those tags. Tag values are normalized before they become part of the cache key: values that no rule checks for are
+ * treated alike, and numbers that are only checked with {@link Matcher#withinRange} or {@link Matcher#atLeast} are
+ * reduced to the range they fall into. Zoom indexes with conditions the cache cannot reason about are never cached.
+ * </p>
+ *
+ * @param <T> The type of feature to classify.
+ */
+public final class Classifier<T extends WithTags> {
+
+  private static final int DEFAULT_MAX_CACHE_SIZE = 100_000;
+  private static final int CACHE_SHARDS = 16;
+
+  /**
+   * Computes the tags the zoom stage sees in addition to the original tags.
+   *
+   * @param <T> The type of feature to classify.
+   */
+  @FunctionalInterface
+  public interface Carry<T> {
+
+    /**
+     * @param feature     The feature being classified.
+     * @param kindMatches The result of the kind stage.
+     * @param tags        Computed tags to add to, initially empty.
+     * @return {@code false} to skip the zoom stage, e.g. because no kind matched.
+     */
+    boolean apply(T feature, List<Map<String, Object>> kindMatches, Matcher.ComputedTags tags);
+  }
+
+  /**
+   * Adds computed tags that the kind stage can already see, typically lazy ones like a country code.
+   *
+   * @param <T> The type of feature to classify.
+   */
+  @FunctionalInterface
+  public interface Prepare<T> {
+
+    /**
+     * @param feature The feature being classified.
+     * @param tags    Computed tags to add to, initially empty.
+     */
+    void apply(T feature, Matcher.ComputedTags tags);
+  }
+
+  /**
+   * The result of both stages, to be used with {@link Matcher#getString} and similar functions.
+   *
+   * @param kindMatches The matches of the kind index.
+   * @param zoomMatches The matches of the zoom index, empty if the zoom stage was skipped.
+   */
+  public record Classification(List<Map<String, Object>> kindMatches, List<Map<String, Object>> zoomMatches) {}
+
+  private enum Marker {
+    MISSING,
+    EMPTY,
+    OTHER,
+    NOT_A_NUMBER,
+    IRRELEVANT
+  }
+
+  private final Prepare<T> prepare;
+  private final RuleIndex kinds;
+  private final RuleIndex zooms;
+  private final Carry<T> carry;
+
+  // how each tag the zoom rules look at is turned into a part of the cache key, null if results cannot be cached
+  private final KeyPart[] keyParts;
+  // a size-bounded LRU split into shards, so a full cache only evicts its least recently used keys
+  private final CacheShard[] cache;
+
+  private Classifier(Prepare<T> prepare, RuleIndex kinds, RuleIndex zooms, Carry<T> carry, int maxCacheSize) {
+    this.prepare = prepare;
+    this.kinds = kinds;
+    this.zooms = zooms;
+    this.carry = carry;
+    this.keyParts = maxCacheSize > 0 ? analyze(zooms.expressions()) : null;
+    this.cache = new CacheShard[CACHE_SHARDS];
+    for (int i = 0; i < CACHE_SHARDS; i++) {
+      cache[i] = new CacheShard(Math.max(1, maxCacheSize / CACHE_SHARDS));
+    }
+  }
+
+  /**
+   * Creates a classifier that caches the results of the zoom stage.
+   *
+   * @param kinds The kind index, matched against the original feature.
+   * @param zooms The zoom index, matched against the original feature and the carried tags.
+   * @param carry Computes the carried tags from the kind matches.
+   * @return A new {@link Classifier}.
+   */
+  public static <T extends WithTags> Classifier<T> of(RuleIndex kinds, RuleIndex zooms, Carry<T> carry) {
+    return new Classifier<>(null, kinds, zooms, carry, DEFAULT_MAX_CACHE_SIZE);
+  }
+
+  /**
+   * Same as {@link #of}, but the kind stage matches the feature together with the tags added by {@code prepare}.
+   */
+  public static <T extends WithTags> Classifier<T> of(Prepare<T> prepare, RuleIndex kinds, RuleIndex zooms,
+    Carry<T> carry) {
+    return new Classifier<>(prepare, kinds, zooms, carry, DEFAULT_MAX_CACHE_SIZE);
+  }
+
+  /**
+   * Same as {@link #of}, but with a custom limit for the number of cached zoom stage results. A limit of 0 disables
+   * caching.
+   */
+  public static <T extends WithTags> Classifier<T> of(RuleIndex kinds, RuleIndex zooms, Carry<T> carry,
+    int maxCacheSize) {
+    return new Classifier<>(null, kinds, zooms, carry, maxCacheSize);
+  }
+
+  /**
+   * Classifies a feature.
+   *
+   * @param feature The feature to classify.
+   * @return The matches of both stages.
+   */
+  public Classification classify(T feature) {
+    var tags = Matcher.ComputedTags.of(feature);
+    try {
+      return classify(feature, tags);
+    } finally {
+      tags.release();
+    }
+  }
+
+  private Classification classify(T feature, Matcher.ComputedTags tags) {
+    List<Map<String, Object>> kindMatches;
+    if (prepare != null) {
+      prepare.apply(feature, tags);
+      kindMatches = kinds.getMatches(tags);
+    } else {
+      kindMatches = kinds.getMatches(feature);
+    }
+    if (!carry.apply(feature, kindMatches, tags)) {
+      return new Classification(kindMatches, List.of());
+    }
+    if (keyParts == null) {
+      return new Classification(kindMatches, zooms.getMatches(tags));
+    }
+
+    Object[] values = new Object[keyParts.length];
+    for (int i = 0; i < keyParts.length; i++) {
+      values[i] = keyParts[i].normalize(tags);
+    }
+    var key = new CacheKey(values);
+    CacheShard shard = cache[(key.hash ^ (key.hash >>> 16)) & (CACHE_SHARDS - 1)];
+    List<Map<String, Object>> zoomMatches;
+    synchronized (shard) {
+      zoomMatches = shard.get(key);
+    }
+    if (zoomMatches == null) {
+      zoomMatches = zooms.getMatches(tags);
+      synchronized (shard) {
+        shard.put(key, zoomMatches);
+      }
+    }
+    return new Classification(kindMatches, zoomMatches);
+  }
+
+  private static final class CacheShard extends LinkedHashMap<CacheKey, List<Map<String, Object>>> {
+    private final int maxSize;
+
+    CacheShard(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<CacheKey, List<Map<String, Object>>> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  private static final class CacheKey {
+    private final Object[] values;
+    private final int hash;
+
+    CacheKey(Object[] values) {
+      this.values = values;
+      this.hash = Arrays.hashCode(values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CacheKey other && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** Everything the zoom rules check about one tag. */
+  private static final class TagUsage {
+    final Set<String> values = new HashSet<>();
+    final TreeSet<Long> bounds = new TreeSet<>();
+    boolean matchedByValue = false;
+    boolean matchedByRange = false;
+    boolean raw = false;
+    // conditions on other tags that every rule looking at this tag also requires, null if some rule has none
+    List<Expression> guards = new ArrayList<>();
+
+    void merge(TagUsage other) {
+      values.addAll(other.values);
+      bounds.addAll(other.bounds);
+      matchedByValue |= other.matchedByValue;
+      matchedByRange |= other.matchedByRange;
+      raw |= other.raw;
+    }
+  }
+
+  private record KeyPart(String key, TagUsage usage, long[] bounds, Expression[] guards) {
+
+    Object normalize(WithTags tags) {
+      if (guards != null && !anyGuardHolds(tags)) {
+        // no rule that looks at this tag can match, so its value (which may be expensive to compute) doesn't matter
+        return Marker.IRRELEVANT;
+      }
+      if (usage.raw) {
+        Object value = tags.getTag(key);
+        return value == null ? Marker.MISSING : value;
+      } else if (usage.matchedByRange) {
+        if (!tags.hasTag(key)) {
+          return Marker.MISSING;
+        }
+        Long value = Matcher.WithinRangeExpression.parseValue(tags, key);
+        if (value == null) {
+          return Marker.NOT_A_NUMBER;
+        }
+        // the number of bounds at or below the value identifies the range it is in
+        int index = Arrays.binarySearch(bounds, value);
+        return index >= 0 ? index + 1 : -index - 1;
+      } else if (usage.matchedByValue) {
+        Object value = tags.getTag(key);
+        if (value == null) {
+          return Marker.MISSING;
+        } else if ("".equals(value)) {
+          return Marker.EMPTY;
+        }
+        String string = value.toString();
+        return usage.values.contains(string) ? string : Marker.OTHER;
+      }
+      return tags.hasTag(key);
+    }
+
+    private boolean anyGuardHolds(WithTags tags) {
+      for (Expression guard : guards) {
+        String field = guard instanceof Expression.MatchField guardField ? guardField.field() :
+          ((Expression.MatchAny) guard).field();
+        if (tags instanceof Matcher.ComputedTags computed && computed.isPending(field)) {
+          // don't compute a lazy tag just to decide whether another one is needed
+          return true;
+        }
+        if (guard instanceof Expression.MatchField matchField) {
+          if (tags.hasTag(matchField.field())) {
+            return true;
+          }
+        } else if (guard instanceof Expression.MatchAny matchAny) {
+          Object value = tags.getTag(matchAny.field());
+          if (value != null && matchAny.exactMatches().contains(value.toString())) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private static KeyPart[] analyze(List<Expression> expressions) {
+    Map<String, TagUsage> usages = new LinkedHashMap<>();
+    for (Expression expression : expressions) {
+      Map<String, TagUsage> ruleUsages = new LinkedHashMap<>();
+      if (!collect(expression, ruleUsages)) {
+        return null;
+      }
+      for (var entry : ruleUsages.entrySet()) {
+        var usage = usages.computeIfAbsent(entry.getKey(), k -> new TagUsage());
+        usage.merge(entry.getValue());
+        Expression guard = findGuard(expression, entry.getKey());
+        if (guard == null) {
+          usage.guards = null;
+        } else if (usage.guards != null) {
+          usage.guards.add(guard);
+        }
+      }
+    }
+    List<KeyPart> parts = new ArrayList<>();
+    for (var entry : usages.entrySet()) {
+      TagUsage usage = entry.getValue();
+      if (usage.matchedByValue && usage.matchedByRange) {
+        usage.raw = true;
+      }
+      long[] bounds = usage.bounds.stream().mapToLong(Long::longValue).toArray();
+      Expression[] guards = usage.guards == null ? null : usage.guards.toArray(Expression[]::new);
+      parts.add(new KeyPart(entry.getKey(), usage, bounds, guards));
+    }
+    return parts.toArray(KeyPart[]::new);
+  }
+
+  private static boolean collect(Expression expression, Map<String, TagUsage> usages) {
+    if (expression == Expression.TRUE || expression == Expression.FALSE) {
+      return true;
+    } else if (expression instanceof Expression.And and) {
+      return and.children().stream().allMatch(child -> collect(child, usages));
+    } else if (expression instanceof Expression.Or or) {
+      return or.children().stream().allMatch(child -> collect(child, usages));
+    } else if (expression instanceof Expression.Not not) {
+      return collect(not.child(), usages);
+    } else if (expression instanceof Expression.MatchField matchField && isPlainKey(matchField.field())) {
+      usages.computeIfAbsent(matchField.field(), k -> new TagUsage());
+      return true;
+    } else if (expression instanceof Expression.MatchAny matchAny && isPlainKey(matchAny.field())) {
+      var usage = usages.computeIfAbsent(matchAny.field(), k -> new TagUsage());
+      usage.matchedByValue = true;
+      usage.values.addAll(matchAny.exactMatches());
+      // wildcard patterns can match any value
+      if (matchAny.values().stream().anyMatch(value -> value instanceof String string && string.contains("%"))) {
+        usage.raw = true;
+      }
+      return true;
+    } else if (expression instanceof Matcher.WithinRangeExpression range && isPlainKey(range.tagName())) {
+      var usage = usages.computeIfAbsent(range.tagName(), k -> new TagUsage());
+      usage.matchedByRange = true;
+      usage.bounds.add(range.lowerBound());
+      if (range.upperBound() != null) {
+        usage.bounds.add(range.upperBound());
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns a top-level condition of {@code rule} on a tag other than {@code key} that can be checked with a plain
+   * lookup, or null if there is none. When the condition is false, the rule can't match whatever the value of
+   * {@code key} is.
+   */
+  private static Expression findGuard(Expression rule, String key) {
+    List<Expression> conditions = rule instanceof Expression.And and ? and.children() : List.of(rule);
+    for (Expression condition : conditions) {
+      if (condition instanceof Expression.MatchField matchField && isPlainKey(matchField.field()) &&
+        !matchField.field().equals(key)) {
+        return condition;
+      } else if (condition instanceof Expression.MatchAny matchAny && isPlainKey(matchAny.field()) &&
+        !matchAny.field().equals(key) && !matchAny.matchWhenMissing() &&
+        matchAny.exactMatches().size() == matchAny.values().size()) {
+        return condition;
+      }
+    }
+    return null;
+  }
+
+  // nested struct lookups like "names.primary" are resolved by the source feature in ways the cache can't follow
+  private static boolean isPlainKey(String key) {
+    return key.indexOf('.') < 0;
+  }
+}
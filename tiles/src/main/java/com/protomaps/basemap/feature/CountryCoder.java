@@ -4,32 +4,113 @@ import com.onthegomap.planetiler.reader.geojson.GeoJson;
 import com.protomaps.basemap.locales.CartographicLocale;
 import com.protomaps.basemap.locales.NL;
 import com.protomaps.basemap.locales.US;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
 import org.locationtech.jts.geom.*;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.ItemVisitor;
 import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Finds the country a geometry lies in, using the country borders bundled as {@code borders.json}.
+ * <p>
+ * Most geometries are answered by a {@link CountryGrid} of cells that are known to be inside a single country or
+ * outside of all countries. Near borders, the {@link STRtree} is queried and the candidates are tested with prepared
+ * polygons, which use cached segment and point-in-area indexes instead of walking the raw polygon rings each time.
+ **/
 public class CountryCoder {
 
-  public record Record(String country, String nameEn, MultiPolygon multiPolygon) {}
+  public record Record(String country, String nameEn, MultiPolygon multiPolygon, PreparedGeometry prepared,
+    PointOnGeometryLocator pointLocator, Optional<String> code) {
 
-  private STRtree tree;
+    public Record(String country, String nameEn, MultiPolygon multiPolygon) {
+      this(country, nameEn, multiPolygon, PreparedGeometryFactory.prepare(multiPolygon),
+        new IndexedPointInAreaLocator(multiPolygon), Optional.of(country));
+    }
+
+    boolean contains(Geometry geom) {
+      if (geom instanceof Point point) {
+        // a point on the border is not contained, same as Geometry.contains
+        return !point.isEmpty() && pointLocator.locate(point.getCoordinate()) == Location.INTERIOR;
+      }
+      return prepared.contains(geom);
+    }
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CountryCoder.class);
+
+  private static final byte[] BINARY_MAGIC = "PMBORDERS1".getBytes(StandardCharsets.US_ASCII);
+
+  private final STRtree tree;
+  private final Record[] records;
+  private final CountryGrid grid;
+  private final ThreadLocal<FirstMatch> firstMatch = ThreadLocal.withInitial(FirstMatch::new);
 
   public CountryCoder(STRtree tree) {
     this.tree = tree;
+    // build the tree up front instead of on the first query
+    tree.build();
+    List<Record> all = new ArrayList<>();
+    tree.query(new Envelope(-Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE),
+      item -> all.add((Record) item));
+    this.records = all.toArray(Record[]::new);
+    this.grid = new CountryGrid(tree, all);
   }
 
+  /**
+   * Loads the bundled borders, preferring {@code borders.bin} created at build time by {@link #main} and falling back
+   * to parsing {@code borders.json}, for example when running from an IDE without the Maven build.
+   */
   public static CountryCoder fromJarResource() throws IOException {
-    InputStream inputStream = CountryCoder.class.getResourceAsStream("/borders.json");
-
-    String jsonContent = new String(inputStream.readAllBytes());
-    return fromJsonString(jsonContent);
+    try (InputStream binary = CountryCoder.class.getResourceAsStream("/borders.bin")) {
+      if (binary != null) {
+        return fromRecords(readBinary(binary));
+      }
+    }
+    try (InputStream json = CountryCoder.class.getResourceAsStream("/borders.json")) {
+      if (json == null) {
+        throw new IOException("borders.bin and borders.json are missing from the classpath");
+      }
+      LOGGER.warn("borders.bin is missing from the classpath, parsing borders.json instead");
+      return fromJsonString(new String(json.readAllBytes(), StandardCharsets.UTF_8));
+    }
   }
 
   public static CountryCoder fromJsonString(String s) {
+    return fromRecords(parseJson(s));
+  }
+
+  private static CountryCoder fromRecords(List<Record> records) {
     STRtree tree = new STRtree();
+    for (Record rec : records) {
+      tree.insert(rec.multiPolygon.getEnvelopeInternal(), rec);
+    }
+    return new CountryCoder(tree);
+  }
+
+  private static List<Record> parseJson(String s) {
+    List<Record> records = new ArrayList<>();
 
     var g = GeoJson.from(s);
 
@@ -47,22 +128,98 @@ public class CountryCoder {
         continue;
       }
       MultiPolygon mp = (MultiPolygon) feature.geometry();
-      tree.insert(mp.getEnvelopeInternal(),
-        new Record(country, properties.get("nameEn").toString(), mp));
+      records.add(new Record(country, properties.get("nameEn").toString(), mp));
     }
-    return new CountryCoder(tree);
+    return records;
+  }
+
+  /**
+   * Reads borders written by {@link #writeBinary}. The file holds the records in their original order, each with its
+   * country code, English name and polygons as WKB.
+   */
+  private static List<Record> readBinary(InputStream inputStream) throws IOException {
+    var in = new DataInputStream(new BufferedInputStream(inputStream));
+    byte[] magic = new byte[BINARY_MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, BINARY_MAGIC)) {
+      throw new IOException("Not a borders file");
+    }
+    WKBReader reader = new WKBReader();
+    int count = in.readInt();
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String country = in.readUTF();
+      String nameEn = in.readUTF();
+      byte[] wkb = new byte[in.readInt()];
+      in.readFully(wkb);
+      try {
+        records.add(new Record(country, nameEn, (MultiPolygon) reader.read(wkb)));
+      } catch (ParseException | ClassCastException e) {
+        throw new IOException("Invalid geometry for " + country, e);
+      }
+    }
+    return records;
+  }
+
+  private static void writeBinary(List<Record> records, OutputStream outputStream) throws IOException {
+    var out = new DataOutputStream(new BufferedOutputStream(outputStream));
+    WKBWriter writer = new WKBWriter();
+    out.write(BINARY_MAGIC);
+    out.writeInt(records.size());
+    for (Record rec : records) {
+      out.writeUTF(rec.country);
+      out.writeUTF(rec.nameEn);
+      byte[] wkb = writer.write(rec.multiPolygon);
+      out.writeInt(wkb.length);
+      out.write(wkb);
+    }
+    out.flush();
+  }
+
+  /**
+   * Converts {@code borders.json} into {@code borders.bin}, run by Maven after compiling.
+   *
+   * @param args The input JSON file and the output binary file.
+   */
+  public static void main(String[] args) throws IOException {
+    List<Record> records = parseJson(Files.readString(Path.of(args[0])));
+    Path output = Path.of(args[1]);
+    Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tmp)) {
+      writeBinary(records, out);
+    }
+    Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
   }
 
   public Optional<String> getCountryCode(Geometry geom) {
-    List<Record> results = tree.query(geom.getEnvelopeInternal());
-    if (results.isEmpty())
-      return Optional.empty();
-    var filtered = results.stream().filter(rec -> rec.multiPolygon.contains(geom)
-    ).toList();
-    if (filtered.isEmpty()) {
+    int cell = grid.lookup(geom);
+    if (cell >= 0) {
+      return records[cell].code;
+    } else if (cell == CountryGrid.NONE) {
       return Optional.empty();
     }
-    return Optional.of(filtered.getFirst().country);
+
+    FirstMatch visitor = firstMatch.get();
+    visitor.geom = geom;
+    visitor.result = null;
+    tree.query(geom.getEnvelopeInternal(), visitor);
+    Record result = visitor.result;
+    visitor.geom = null;
+    visitor.result = null;
+    return result == null ? Optional.empty() : result.code;
+  }
+
+  /** Remembers the first candidate in query order that contains the geometry, reused to avoid allocations. */
+  private static final class FirstMatch implements ItemVisitor {
+    Geometry geom;
+    Record result;
+
+    @Override
+    public void visitItem(Object item) {
+      if (result == null && item instanceof Record rec && rec.contains(geom)) {
+        result = rec;
+      }
+    }
   }
 
   public static CartographicLocale getLocale(Optional<String> code) {
@@ -0,0 +1,164 @@
+package com.protomaps.basemap.feature;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.strtree.STRtree;
+
+/**
+ * A raster of the world in lat/lon cells of {@value #CELLS_PER_DEGREE}ths of a degree, each labelled as outside of
+ * every country, inside a single country, or on a border.
+ * <p>
+ * Most features fall into a cell that lies entirely inside one country (or outside of all countries), so their country
+ * is an array read. Only features in border cells need exact polygon tests. Cells are labelled the first time they are
+ * looked up, and the raster is allocated in blocks of one degree, so a regional extract only ever labels and stores the
+ * cells it touches.
+ */
+final class CountryGrid {
+
+  static final int CELLS_PER_DEGREE = 20;
+
+  /** Returned when the exact polygons have to decide. */
+  static final int BORDER = -2;
+  /** Returned when no country contains the geometry. */
+  static final int NONE = -1;
+
+  // the largest number of cells a geometry may span to be looked up in the grid, larger ones go to the polygons
+  private static final int MAX_CELLS = 4;
+
+  // labels stored in the raster, 0 means the cell has not been labelled yet
+  private static final short UNKNOWN_LABEL = 0;
+  private static final short NONE_LABEL = 1;
+  private static final short BORDER_LABEL = 2;
+  private static final short FIRST_COUNTRY_LABEL = 3;
+
+  private static final int BLOCK_CELLS = CELLS_PER_DEGREE * CELLS_PER_DEGREE;
+  // cells are slightly grown before they are labelled, so geometries on a cell edge can't touch a country border
+  private static final double EPSILON = 1e-9;
+
+  private final STRtree tree;
+  private final Map<CountryCoder.Record, Integer> indexes = new IdentityHashMap<>();
+  private final GeometryFactory factory = new GeometryFactory();
+  private final AtomicReferenceArray<short[]> blocks = new AtomicReferenceArray<>(360 * 180);
+
+  /**
+   * @param tree    The index of all country records.
+   * @param records The same records, the grid reports the position of a record in this list.
+   */
+  CountryGrid(STRtree tree, List<CountryCoder.Record> records) {
+    this.tree = tree;
+    for (int i = 0; i < records.size(); i++) {
+      indexes.put(records.get(i), i);
+    }
+  }
+
+  /**
+   * Looks up a geometry in the grid.
+   *
+   * @param geom A lat/lon geometry.
+   * @return The position of the country that contains {@code geom}, {@link #NONE} if no country contains it, or
+   *         {@link #BORDER} if the grid can't tell.
+   */
+  int lookup(Geometry geom) {
+    if (geom instanceof Point point) {
+      if (point.isEmpty()) {
+        return BORDER;
+      }
+      return toResult(label(cellX(point.getX()), cellY(point.getY())));
+    }
+    Envelope envelope = geom.getEnvelopeInternal();
+    if (envelope.isNull()) {
+      return BORDER;
+    }
+    int minX = cellX(envelope.getMinX());
+    int maxX = cellX(envelope.getMaxX());
+    int minY = cellY(envelope.getMinY());
+    int maxY = cellY(envelope.getMaxY());
+    if (minX < 0 || maxX < 0 || minY < 0 || maxY < 0 || (maxX - minX + 1) * (maxY - minY + 1) > MAX_CELLS) {
+      return BORDER;
+    }
+    // a geometry that only touches cells inside the same country is inside that country as well
+    short result = label(minX, minY);
+    for (int x = minX; x <= maxX && result != BORDER_LABEL; x++) {
+      for (int y = minY; y <= maxY; y++) {
+        if (label(x, y) != result) {
+          return BORDER;
+        }
+      }
+    }
+    return toResult(result);
+  }
+
+  private static int toResult(short label) {
+    return switch (label) {
+      case NONE_LABEL -> NONE;
+      case BORDER_LABEL, UNKNOWN_LABEL -> BORDER;
+      default -> label - FIRST_COUNTRY_LABEL;
+    };
+  }
+
+  private static int cellX(double lon) {
+    if (!(lon >= -180 && lon < 180)) {
+      return -1;
+    }
+    // rounding may push values just below 180 into the next cell
+    return Math.min((int) ((lon + 180) * CELLS_PER_DEGREE), 360 * CELLS_PER_DEGREE - 1);
+  }
+
+  private static int cellY(double lat) {
+    if (!(lat >= -90 && lat < 90)) {
+      return -1;
+    }
+    return Math.min((int) ((lat + 90) * CELLS_PER_DEGREE), 180 * CELLS_PER_DEGREE - 1);
+  }
+
+  private short label(int x, int y) {
+    if (x < 0 || y < 0) {
+      return BORDER_LABEL;
+    }
+    int blockIndex = (y / CELLS_PER_DEGREE) * 360 + (x / CELLS_PER_DEGREE);
+    short[] block = blocks.get(blockIndex);
+    if (block == null) {
+      blocks.compareAndSet(blockIndex, null, new short[BLOCK_CELLS]);
+      block = blocks.get(blockIndex);
+    }
+    int cellIndex = (y % CELLS_PER_DEGREE) * CELLS_PER_DEGREE + (x % CELLS_PER_DEGREE);
+    short label = block[cellIndex];
+    if (label == UNKNOWN_LABEL) {
+      // two threads may label the same cell, but they always agree
+      label = computeLabel(x, y);
+      block[cellIndex] = label;
+    }
+    return label;
+  }
+
+  private short computeLabel(int x, int y) {
+    double minLon = (double) x / CELLS_PER_DEGREE - 180;
+    double minLat = (double) y / CELLS_PER_DEGREE - 90;
+    Envelope cellEnvelope = new Envelope(minLon - EPSILON, minLon + 1d / CELLS_PER_DEGREE + EPSILON,
+      minLat - EPSILON, minLat + 1d / CELLS_PER_DEGREE + EPSILON);
+    Geometry cell = factory.toGeometry(cellEnvelope);
+
+    CountryCoder.Record only = null;
+    for (Object item : tree.query(cellEnvelope)) {
+      var rec = (CountryCoder.Record) item;
+      if (!rec.prepared().intersects(cell)) {
+        continue;
+      }
+      // with more than one country touching the cell, the order of the records decides
+      if (only != null) {
+        return BORDER_LABEL;
+      }
+      only = rec;
+    }
+    if (only == null) {
+      return NONE_LABEL;
+    }
+    return only.prepared().contains(cell) ? (short) (FIRST_COUNTRY_LABEL + indexes.get(only)) : BORDER_LABEL;
+  }
+}
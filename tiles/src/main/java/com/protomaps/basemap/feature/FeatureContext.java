@@ -0,0 +1,102 @@
+package com.protomaps.basemap.feature;
+
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.reader.SourceFeature;
+import com.protomaps.basemap.locales.CartographicLocale;
+import java.util.Optional;
+
+/**
+ * Values derived from a feature's geometry that several layers need, computed on first use and kept until the same
+ * thread moves on to the next feature.
+ * <p>
+ * Planetiler hands every source feature to all layer handlers in turn on one thread, so a country lookup or area
+ * computed by one layer is reused by the others. Nothing is computed unless a layer asks for it.
+ * </p>
+ */
+public final class FeatureContext {
+
+  private static final ThreadLocal<FeatureContext> PER_THREAD = ThreadLocal.withInitial(FeatureContext::new);
+
+  private SourceFeature feature;
+
+  private CountryCoder countryCoder;
+  private Optional<String> countryCode;
+  private CartographicLocale locale;
+
+  private boolean hasArea;
+  private double area;
+  private boolean hasEnvelopeArea;
+  private double envelopeArea;
+
+  private FeatureContext() {}
+
+  /**
+   * Returns the context of a feature, discarding the values of the previous feature processed on this thread.
+   *
+   * @param feature The feature being processed.
+   * @return This thread's context for {@code feature}.
+   */
+  public static FeatureContext of(SourceFeature feature) {
+    FeatureContext context = PER_THREAD.get();
+    if (context.feature != feature) {
+      context.reset(feature);
+    }
+    return context;
+  }
+
+  private void reset(SourceFeature newFeature) {
+    feature = newFeature;
+    countryCoder = null;
+    countryCode = null;
+    locale = null;
+    hasArea = false;
+    hasEnvelopeArea = false;
+  }
+
+  /**
+   * The code of the country the feature lies in, see {@link CountryCoder#getCountryCode}.
+   *
+   * @param coder The country coder, all layers are expected to share the same instance.
+   * @return The ISO code, or empty if the feature is not inside a single country or has no valid geometry.
+   */
+  public Optional<String> countryCode(CountryCoder coder) {
+    if (countryCode == null || countryCoder != coder) {
+      countryCoder = coder;
+      locale = null;
+      try {
+        countryCode = coder.getCountryCode(feature.latLonGeometry());
+      } catch (GeometryException e) {
+        e.log("Failed to determine country code");
+        countryCode = Optional.empty();
+      }
+    }
+    return countryCode;
+  }
+
+  /** The locale of the feature's country, see {@link CountryCoder#getLocale}. */
+  public CartographicLocale locale(CountryCoder coder) {
+    Optional<String> code = countryCode(coder);
+    if (locale == null) {
+      locale = CountryCoder.getLocale(code);
+    }
+    return locale;
+  }
+
+  /** The area of the feature in world coordinates, see {@link SourceFeature#area()}. */
+  public double area() throws GeometryException {
+    if (!hasArea) {
+      area = feature.area();
+      hasArea = true;
+    }
+    return area;
+  }
+
+  /** The area of the feature's bounding box in world coordinates. */
+  public double envelopeArea() throws GeometryException {
+    if (!hasEnvelopeArea) {
+      envelopeArea = feature.worldGeometry().getEnvelopeInternal().getArea();
+      hasEnvelopeArea = true;
+    }
+    return envelopeArea;
+  }
+}
@@ -2,15 +2,17 @@ package com.protomaps.basemap.feature;
 
 import com.onthegomap.planetiler.expression.Expression;
 import com.onthegomap.planetiler.expression.MultiExpression;
-import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.geo.GeometryType;
-import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.reader.WithTags;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.locationtech.jts.geom.Geometry;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * A utility class for matching source feature properties to values.
@@ -23,8 +25,8 @@ import org.locationtech.jts.geom.Geometry;
  * </p>
  *
  * <p>
- * The MultiExpression can be used on a source feature and the resulting list of matches can be used in
- * {@link #getString} and similar functions to retrieve a value.
+ * The rules are compiled into a {@link RuleIndex} that can be used on a source feature and the resulting list of
+ * matches can be used in {@link #getString} and similar functions to retrieve a value.
  * </p>
  *
  * <p>
@@ -33,7 +35,7 @@ import org.locationtech.jts.geom.Geometry;
  *
  * <pre>
  * <code>
- *var index = MultiExpression.ofOrdered(List.of(rule(with("highway", "primary"), use("kind", "major_road")))).index();
+ *var index = RuleIndex.compile(List.of(rule(with("highway", "primary"), use("kind", "major_road"))));
  *var matches = index.getMatches(sourceFeature);
  *String kind = getString(sourceFeature, matches, "kind", "other");
  * </code>
@@ -210,20 +212,28 @@ public class Matcher {
   /**
    * Expression implementation for numeric range matching.
    */
-  private record WithinRangeExpression(String tagName, long lowerBound, Long upperBound) implements Expression {
+  record WithinRangeExpression(String tagName, long lowerBound, Long upperBound) implements Expression {
 
     @Override
-    public boolean evaluate(com.onthegomap.planetiler.reader.WithTags input, List<String> matchKeys) {
+    public boolean evaluate(WithTags input, List<String> matchKeys) {
+      Long value = parseValue(input, tagName);
+      return value != null && value >= lowerBound && (upperBound == null || value < upperBound);
+    }
+
+    /**
+     * Returns the numeric value of a tag as seen by range checks, or {@code null} if it is missing or not a number.
+     */
+    static Long parseValue(WithTags input, String tagName) {
       if (!input.hasTag(tagName)) {
-        return false;
+        return null;
       }
       long value = input.getLong(tagName);
       // getLong returns 0 for invalid values, so we need to check if 0 is actually the tag value
       if (value == 0 && !"0".equals(input.getString(tagName))) {
         // getLong returned 0 because parsing failed
-        return false;
+        return null;
       }
-      return value >= lowerBound && (upperBound == null || value < upperBound);
+      return value;
     }
   }
 
@@ -266,7 +276,7 @@ public class Matcher {
    *
    * <pre>
    * <code>
-   *var index = MultiExpression.ofOrdered(List.of(rule(with("highway", "primary", "secondary"), use("kind", fromTag("highway"))))).index();
+   *var index = RuleIndex.compile(List.of(rule(with("highway", "primary", "secondary"), use("kind", fromTag("highway")))));
    *var matches = index.getMatches(sourceFeature);
    *String kind = getString(sourceFeature, matches, "kind", "other");
    * </code>
@@ -281,7 +291,7 @@ public class Matcher {
     return new FromTag(key);
   }
 
-  public static String getString(SourceFeature sf, List<Map<String, Object>> matches, String key, String defaultValue) {
+  public static String getString(WithTags sf, List<Map<String, Object>> matches, String key, String defaultValue) {
     for (var match : matches.reversed()) {
       if (match.containsKey(key)) {
         Object value = match.get(key);
@@ -297,7 +307,7 @@ public class Matcher {
     return defaultValue;
   }
 
-  public static Integer getInteger(SourceFeature sf, List<Map<String, Object>> matches, String key,
+  public static Integer getInteger(WithTags sf, List<Map<String, Object>> matches, String key,
     Integer defaultValue) {
     for (var match : matches.reversed()) {
       if (match.containsKey(key)) {
@@ -321,7 +331,7 @@ public class Matcher {
     return defaultValue;
   }
 
-  public static Double getDouble(SourceFeature sf, List<Map<String, Object>> matches, String key, Double defaultValue) {
+  public static Double getDouble(WithTags sf, List<Map<String, Object>> matches, String key, Double defaultValue) {
     for (var match : matches.reversed()) {
       if (match.containsKey(key)) {
         Object value = match.get(key);
@@ -341,7 +351,7 @@ public class Matcher {
     return defaultValue;
   }
 
-  public static Boolean getBoolean(SourceFeature sf, List<Map<String, Object>> matches, String key,
+  public static Boolean getBoolean(WithTags sf, List<Map<String, Object>> matches, String key,
     Boolean defaultValue) {
     for (var match : matches.reversed()) {
       if (match.containsKey(key)) {
@@ -359,64 +369,162 @@ public class Matcher {
   }
 
   /**
-   * Wrapper that combines a SourceFeature with computed tags without mutating the original. This allows MultiExpression
-   * matching to access both original and computed tags.
+   * A read-only view of a source feature's tags with a few computed tags layered on top, without copying the original
+   * tags.
+   *
+   * <p>
+   * Use this when rules should see derived properties (like the kind from a first matching pass, or an area) next to the
+   * original tags. Computed tags take precedence over original tags with the same key.
+   * </p>
    *
    * <p>
-   * This is useful when you need to add computed tags (like area calculations or derived properties) that should be
-   * accessible to MultiExpression rules, but the original SourceFeature has immutable tags.
+   * {@link #of} hands out one instance per thread that is reset on every call, so the result is only valid until the
+   * next call to {@link #of} on the same thread. Call {@link #release} when done, so the instance does not keep the
+   * feature and its geometry alive until the thread classifies the next one.
    * </p>
    */
-  public static class SourceFeatureWithComputedTags extends SourceFeature {
-    private final SourceFeature delegate;
-    private final Map<String, Object> combinedTags;
+  public static final class ComputedTags implements WithTags {
+    private static final ThreadLocal<ComputedTags> PER_THREAD = ThreadLocal.withInitial(ComputedTags::new);
+
+    private WithTags delegate;
+    private String[] keys = new String[4];
+    private Object[] values = new Object[4];
+    private int size = 0;
+    private final Map<String, Object> view = new View();
+
+    private ComputedTags() {}
 
     /**
-     * Creates a wrapper around a SourceFeature with additional computed tags.
+     * Returns this thread's reusable instance, reset to wrap {@code delegate}.
      *
-     * @param delegate     The original SourceFeature to wrap
-     * @param computedTags Additional computed tags to merge with the original tags
+     * @param delegate The original tags.
+     * @return The reusable instance without any computed tags.
      */
-    public SourceFeatureWithComputedTags(SourceFeature delegate, Map<String, Object> computedTags) {
-      super(new HashMap<>(delegate.tags()), delegate.getSource(), delegate.getSourceLayer(), null, delegate.id());
+    public static ComputedTags of(WithTags delegate) {
+      return PER_THREAD.get().reset(delegate);
+    }
+
+    /**
+     * Wraps another set of tags and forgets all computed tags.
+     *
+     * @param delegate The original tags.
+     * @return This instance.
+     */
+    public ComputedTags reset(WithTags delegate) {
       this.delegate = delegate;
-      this.combinedTags = new HashMap<>(delegate.tags());
-      this.combinedTags.putAll(computedTags);
+      Arrays.fill(values, 0, size, null);
+      size = 0;
+      return this;
     }
 
-    @Override
-    public Map<String, Object> tags() {
-      return combinedTags;
+    /** Forgets the wrapped tags and all computed tags, including lazy ones that may refer to the feature. */
+    public void release() {
+      reset(null);
     }
 
-    @Override
-    public Geometry worldGeometry() throws GeometryException {
-      return delegate.worldGeometry();
+    /**
+     * Adds or replaces a computed tag.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return This instance.
+     */
+    public ComputedTags put(String key, Object value) {
+      int i = indexOf(key);
+      if (i >= 0) {
+        values[i] = value;
+        return this;
+      }
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      keys[size] = key;
+      values[size] = value;
+      size++;
+      return this;
     }
 
-    @Override
-    public Geometry latLonGeometry() throws GeometryException {
-      return delegate.latLonGeometry();
+    /**
+     * Adds or replaces a computed tag whose value is only computed when a rule looks at it. A {@code null} value means
+     * the tag is missing.
+     *
+     * @param key   The key.
+     * @param value Computes the value, called at most once.
+     * @return This instance.
+     */
+    public ComputedTags putLazy(String key, Supplier<?> value) {
+      return put(key, new Lazy(value));
     }
 
-    @Override
-    public boolean isPoint() {
-      return delegate.isPoint();
+    private record Lazy(Supplier<?> supplier) {}
+
+    /** Whether {@code key} is a lazy tag whose value has not been computed yet. */
+    boolean isPending(String key) {
+      int i = indexOf(key);
+      return i >= 0 && values[i] instanceof Lazy;
+    }
+
+    private Object valueAt(int i) {
+      Object value = values[i];
+      if (value instanceof Lazy lazy) {
+        value = lazy.supplier.get();
+        values[i] = value;
+      }
+      return value;
+    }
+
+    private int indexOf(String key) {
+      for (int i = 0; i < size; i++) {
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+      return -1;
     }
 
     @Override
-    public boolean canBePolygon() {
-      return delegate.canBePolygon();
+    public Object getTag(String key) {
+      int i = indexOf(key);
+      return i >= 0 ? valueAt(i) : delegate.getTag(key);
     }
 
     @Override
-    public boolean canBeLine() {
-      return delegate.canBeLine();
+    public boolean hasTag(String key) {
+      int i = indexOf(key);
+      return i >= 0 ? valueAt(i) != null : delegate.hasTag(key);
     }
 
     @Override
-    public boolean hasRelationInfo() {
-      return delegate.hasRelationInfo();
+    public Map<String, Object> tags() {
+      return view;
+    }
+
+    private final class View extends AbstractMap<String, Object> {
+      @Override
+      public Object get(Object key) {
+        return key instanceof String string ? getTag(string) : null;
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return key instanceof String string && hasTag(string);
+      }
+
+      // only needed when iterating over all tags, which the rules never do
+      @Override
+      public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> merged = new HashMap<>(delegate.tags());
+        for (int i = 0; i < size; i++) {
+          Object value = valueAt(i);
+          if (value == null) {
+            merged.remove(keys[i]);
+          } else {
+            merged.put(keys[i], value);
+          }
+        }
+        return Collections.unmodifiableMap(merged).entrySet();
+      }
     }
   }
 
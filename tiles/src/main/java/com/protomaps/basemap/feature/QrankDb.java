@@ -1,58 +1,280 @@
 package com.protomaps.basemap.feature;
 
+import com.carrotsearch.hppc.LongHashSet;
 import com.carrotsearch.hppc.LongLongHashMap;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 import java.util.zip.GZIPInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * An in-memory representation of the entire QRank database used for generalizing
+ * A queryable representation of the entire QRank database used for generalizing
  * {@link com.protomaps.basemap.layers.Pois}.
  * <p>
- * Parses a copy of the gzipped QRank dataset into a long->long hash map that can be efficiently queried when processing
- * POI features.
+ * The gzipped QRank dataset is converted once into a binary file with all wikidata IDs sorted in one block followed by
+ * their ranks in a second block. The binary file is memory-mapped and queried with a binary search, so loading it is
+ * almost instant and the entries live in the page cache instead of the heap. The file header stores the size and
+ * modification time of the CSV it was created from, and the binary file is recreated when a new CSV is downloaded.
+ * <p>
+ * Small databases, e.g. in tests, can also be backed by a long->long hash map.
  **/
 public final class QrankDb {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(QrankDb.class);
+
+  private static final byte[] MAGIC = "PMQRANK2".getBytes(StandardCharsets.US_ASCII);
+  // magic, size and modification time of the CSV, number of entries
+  private static final int HEADER_BYTES = 32;
+
   private final LongLongHashMap db;
+  private final LongBuffer ids;
+  private final LongBuffer ranks;
 
   public QrankDb(LongLongHashMap db) {
     this.db = db;
+    this.ids = null;
+    this.ranks = null;
+  }
+
+  private QrankDb(LongBuffer ids, LongBuffer ranks) {
+    this.db = null;
+    this.ids = ids;
+    this.ranks = ranks;
   }
 
   public long get(long wikidataId) {
-    return this.db.get(wikidataId);
+    if (db != null) {
+      return db.get(wikidataId);
+    }
+    int low = 0;
+    int high = ids.limit() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long id = ids.get(mid);
+      if (id < wikidataId) {
+        low = mid + 1;
+      } else if (id > wikidataId) {
+        high = mid - 1;
+      } else {
+        return ranks.get(mid);
+      }
+    }
+    return 0;
   }
 
   public long get(String osmValue) {
+    long id = parseId(osmValue);
+    return id > 0 ? this.get(id) : 0;
+  }
+
+  /**
+   * Returns the numeric part of a wikidata tag, e.g. 42 for {@code Q42}. Only the first of several IDs separated by
+   * {@code ;} is used.
+   *
+   * @param osmValue The tag value.
+   * @return The ID, or 0 if the value is malformed.
+   */
+  public static long parseId(String osmValue) {
     try {
-      if (osmValue.contains(";")) {
-        osmValue = osmValue.split(";")[0];
-      }
-      long id = Long.parseLong(osmValue.substring(1));
-      return this.get(id);
-    } catch (NumberFormatException e) {
+      int end = osmValue.indexOf(';');
+      return Long.parseLong(osmValue, 1, end < 0 ? osmValue.length() : end, 10);
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
       return 0;
     }
   }
 
+  /**
+   * Copies the entries of a set of wikidata IDs into a small hash map, e.g. the IDs collected by
+   * {@link WikidataCollector}.
+   *
+   * @param wikidataIds The IDs to keep.
+   * @return A {@link QrankDb} that only contains the given IDs.
+   */
+  public QrankDb retain(LongHashSet wikidataIds) {
+    LongLongHashMap retained = new LongLongHashMap(wikidataIds.size());
+    for (var cursor : wikidataIds) {
+      long rank = get(cursor.value);
+      if (rank != 0) {
+        retained.put(cursor.value, rank);
+      }
+    }
+    return new QrankDb(retained);
+  }
+
+  /**
+   * Parses the gzipped QRank CSV into a hash map on the heap.
+   * <p>
+   * Prefer {@link #fromCsv(Path, Path)} for the full dataset.
+   */
   public static QrankDb fromCsv(Path csvPath) throws IOException {
-    GZIPInputStream gzip = new GZIPInputStream(new FileInputStream(csvPath.toFile()));
-    try (BufferedReader br = new BufferedReader(new InputStreamReader(gzip))) {
-      String content;
-      LongLongHashMap db = new LongLongHashMap();
-      String header = br.readLine(); // header
-      assert (header.equals("Entity,QRank"));
-      while ((content = br.readLine()) != null) {
-        var split = content.split(",");
-        long id = Long.parseLong(split[0].substring(1));
-        long rank = Long.parseLong(split[1]);
-        db.put(id, rank);
+    LongLongHashMap db = new LongLongHashMap();
+    readCsv(csvPath, db::put);
+    return new QrankDb(db);
+  }
+
+  /**
+   * Opens the binary representation of a gzipped QRank CSV, creating it first if it is missing or was created from a
+   * different CSV. The CSV is identified by its size and modification time, so that it does not have to be read at
+   * every start. When an ID is listed more than once, the last rank wins, like in {@link #fromCsv(Path)}.
+   *
+   * @param csvPath    The gzipped QRank CSV.
+   * @param binaryPath Where to keep the binary representation.
+   * @return A {@link QrankDb} backed by the memory-mapped binary file.
+   */
+  public static QrankDb fromCsv(Path csvPath, Path binaryPath) throws IOException {
+    long csvSize = Files.size(csvPath);
+    long csvModified = Files.getLastModifiedTime(csvPath).toMillis();
+    if (!isCreatedFrom(binaryPath, csvSize, csvModified)) {
+      LOGGER.info("Converting {} to {}", csvPath, binaryPath);
+      convert(csvPath, binaryPath, csvSize, csvModified);
+    }
+    return open(binaryPath);
+  }
+
+  private interface EntryConsumer {
+    void accept(long id, long rank);
+  }
+
+  private static void readCsv(Path csvPath, EntryConsumer consumer) throws IOException {
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(
+      new GZIPInputStream(new BufferedInputStream(Files.newInputStream(csvPath), 1 << 16)), StandardCharsets.UTF_8),
+      1 << 16)) {
+      String header = br.readLine();
+      if (header == null || !header.equals("Entity,QRank")) {
+        throw new IOException("Unexpected QRank header in " + csvPath + ": " + header);
+      }
+      String line;
+      while ((line = br.readLine()) != null) {
+        // lines look like Q42,123456
+        int comma = line.indexOf(',');
+        if (comma < 2) {
+          continue;
+        }
+        long id = Long.parseLong(line, 1, comma, 10);
+        long rank = Long.parseLong(line, comma + 1, line.length(), 10);
+        consumer.accept(id, rank);
+      }
+    }
+  }
+
+  private static boolean isCreatedFrom(Path binaryPath, long csvSize, long csvModified) throws IOException {
+    if (!Files.exists(binaryPath)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(binaryPath, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_BYTES) {
+        return false;
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && channel.read(header) > 0) {
+        // read the full header
+      }
+      header.flip();
+      byte[] magic = new byte[MAGIC.length];
+      header.get(magic);
+      long count = header.getLong(MAGIC.length + 16);
+      return Arrays.equals(magic, MAGIC) && header.getLong(MAGIC.length) == csvSize &&
+        header.getLong(MAGIC.length + 8) == csvModified && channel.size() == HEADER_BYTES + count * 16;
+    }
+  }
+
+  private static void convert(Path csvPath, Path binaryPath, long csvSize, long csvModified) throws IOException {
+    var entries = new Object() {
+      long[] ids = new long[1 << 20];
+      long[] ranks = new long[1 << 20];
+      int size = 0;
+    };
+    readCsv(csvPath, (id, rank) -> {
+      if (entries.size == entries.ids.length) {
+        entries.ids = Arrays.copyOf(entries.ids, entries.size * 2);
+        entries.ranks = Arrays.copyOf(entries.ranks, entries.size * 2);
+      }
+      entries.ids[entries.size] = id;
+      entries.ranks[entries.size] = rank;
+      entries.size++;
+    });
+    long[] ids = entries.ids;
+    long[] ranks = entries.ranks;
+    int size = sortAndDeduplicate(ids, ranks, entries.size);
+
+    Path tmp = binaryPath.resolveSibling(binaryPath.getFileName() + ".tmp");
+    try (var out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+      ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      out.write(MAGIC);
+      out.write(buffer.putLong(0, csvSize).array());
+      out.write(buffer.putLong(0, csvModified).array());
+      out.write(buffer.putLong(0, size).array());
+      for (int i = 0; i < size; i++) {
+        out.write(buffer.putLong(0, ids[i]).array());
+      }
+      for (int i = 0; i < size; i++) {
+        out.write(buffer.putLong(0, ranks[i]).array());
+      }
+    }
+    Files.move(tmp, binaryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static QrankDb open(Path binaryPath) throws IOException {
+    try (FileChannel channel = FileChannel.open(binaryPath, StandardOpenOption.READ)) {
+      long count = (channel.size() - HEADER_BYTES) / 16;
+      if (count * 8 > Integer.MAX_VALUE) {
+        throw new IOException("Too many entries in " + binaryPath + ": " + count);
+      }
+      // the mapping stays valid after the channel is closed
+      LongBuffer ids = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, count * 8)
+        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+      LongBuffer ranks = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + count * 8, count * 8)
+        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+      LOGGER.info("Opened {} with {} entries", binaryPath, count);
+      return new QrankDb(ids, ranks);
+    }
+  }
+
+  /**
+   * Sorts both arrays by ID and drops repeated IDs, keeping the rank listed last. Returns the new size.
+   * <p>
+   * Each ID is packed with its position into a single long, so one primitive sort orders the entries by ID and keeps
+   * repeated IDs in the order they were listed in.
+   * </p>
+   */
+  static int sortAndDeduplicate(long[] ids, long[] ranks, int size) {
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      if (ids[i] < 0 || ids[i] > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Wikidata ID out of range: Q" + ids[i]);
+      }
+      keys[i] = (ids[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+
+    long[] sortedRanks = new long[size];
+    int out = 0;
+    for (int i = 0; i < size; i++) {
+      long id = keys[i] >>> 32;
+      long rank = ranks[(int) keys[i]];
+      if (out > 0 && ids[out - 1] == id) {
+        sortedRanks[out - 1] = rank;
+      } else {
+        // ids before out are not read anymore, all original IDs are in keys
+        ids[out] = id;
+        sortedRanks[out] = rank;
+        out++;
       }
-      return new QrankDb(db);
     }
+    System.arraycopy(sortedRanks, 0, ranks, 0, out);
+    return out;
   }
 
   public static Optional<Integer> assignZoom(Map<String, int[][]> grading, String kind, long qrank) {
@@ -0,0 +1,468 @@
+package com.protomaps.basemap.feature;
+
+import com.onthegomap.planetiler.expression.Expression;
+import com.onthegomap.planetiler.expression.MultiExpression;
+import com.onthegomap.planetiler.reader.WithTags;
+import com.onthegomap.planetiler.stats.Counter;
+import com.onthegomap.planetiler.stats.Stats;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compiled, key-dispatched replacement for a {@link MultiExpression.Index} built from {@link Matcher#rule} entries.
+ *
+ * <p>
+ * Each rule is filed under the first of its top-level conditions that can be answered by a tag lookup: a
+ * {@link Matcher#with} on a key and one or more values, or on a key alone. When matching a feature, only the rules
+ * filed under the feature's actual tag values (plus the rules without such a condition) are evaluated.
+ * </p>
+ *
+ * <p>
+ * The "later rule wins" semantics of {@link Matcher#getString} and friends are folded ahead of time: every distinct
+ * combination of matching rules is merged into a single key-value map the first time it is seen, and that map is
+ * returned for all later features that match the same combination. {@link #getMatches} therefore returns either an
+ * empty list or a list with exactly one map, and the {@code Matcher.get*} functions work on it unchanged.
+ * </p>
+ *
+ * <p>
+ * Rules are always applied in declaration order, like {@link MultiExpression#ofOrdered}.
+ * </p>
+ *
+ * <p>
+ * Named indexes can be profiled with {@link #enableProfiling}: every rule then counts how often it was evaluated, how
+ * often it matched and how much time its conditions took. {@link #logProfile} prints the rules ranked by time. The
+ * counts only cover calls to {@link #getMatches}: a {@link Classifier} that answers a feature from its zoom stage cache
+ * skips the zoom index, so the counts of zoom indexes are lower than the number of features classified.
+ * </p>
+ */
+public final class RuleIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RuleIndex.class);
+
+  private static final List<RuleIndex> NAMED_INDEXES = new CopyOnWriteArrayList<>();
+  private static volatile Stats profilingStats = null;
+
+  private final String name;
+  private volatile Profile profile = null;
+
+  private final Expression[] expressions;
+  private final Map<String, Object>[] results;
+
+  // rules without a tag condition to dispatch on, evaluated for every feature
+  private final int[] alwaysRules;
+
+  // rules dispatched on the value of a tag, grouped by key
+  private final String[] valueKeys;
+  private final Map<String, int[]>[] valueRules;
+  private final int[][] allValueRules;
+
+  // rules dispatched on the presence of a tag, grouped by key
+  private final String[] presenceKeys;
+  private final int[][] presenceRules;
+
+  private final Map<RuleSet, List<Map<String, Object>>> combinations = new ConcurrentHashMap<>();
+  private final ThreadLocal<Scratch> scratch;
+
+  @SuppressWarnings("unchecked")
+  private RuleIndex(String name, List<MultiExpression.Entry<Map<String, Object>>> rules) {
+    this.name = name;
+    int n = rules.size();
+    expressions = new Expression[n];
+    results = new Map[n];
+
+    List<Integer> always = new ArrayList<>();
+    Map<String, Map<String, List<Integer>>> byValue = new LinkedHashMap<>();
+    Map<String, List<Integer>> byValueAll = new LinkedHashMap<>();
+    Map<String, List<Integer>> byPresence = new LinkedHashMap<>();
+
+    for (int i = 0; i < n; i++) {
+      var rule = rules.get(i);
+      expressions[i] = rule.expression();
+      results[i] = rule.result();
+
+      Dispatch dispatch = findDispatch(rule.expression());
+      if (dispatch == null) {
+        always.add(i);
+      } else if (dispatch.values == null) {
+        byPresence.computeIfAbsent(dispatch.key, k -> new ArrayList<>()).add(i);
+      } else {
+        var rulesByValue = byValue.computeIfAbsent(dispatch.key, k -> new HashMap<>());
+        for (String value : dispatch.values) {
+          var list = rulesByValue.computeIfAbsent(value, v -> new ArrayList<>());
+          if (!list.contains(i)) {
+            list.add(i);
+          }
+        }
+        byValueAll.computeIfAbsent(dispatch.key, k -> new ArrayList<>()).add(i);
+      }
+    }
+
+    alwaysRules = toArray(always);
+
+    valueKeys = byValue.keySet().toArray(String[]::new);
+    valueRules = new Map[valueKeys.length];
+    allValueRules = new int[valueKeys.length][];
+    for (int k = 0; k < valueKeys.length; k++) {
+      Map<String, int[]> compiled = new HashMap<>();
+      for (var entry : byValue.get(valueKeys[k]).entrySet()) {
+        compiled.put(entry.getKey(), toArray(entry.getValue()));
+      }
+      valueRules[k] = compiled;
+      allValueRules[k] = toArray(byValueAll.get(valueKeys[k]));
+    }
+
+    presenceKeys = byPresence.keySet().toArray(String[]::new);
+    presenceRules = new int[presenceKeys.length][];
+    for (int k = 0; k < presenceKeys.length; k++) {
+      presenceRules[k] = toArray(byPresence.get(presenceKeys[k]));
+    }
+
+    int words = (n + 63) >>> 6;
+    scratch = ThreadLocal.withInitial(() -> new Scratch(words));
+  }
+
+  /**
+   * Compiles a list of rules created with {@link Matcher#rule} into a {@link RuleIndex}.
+   *
+   * @param rules The rules, in the order they should be applied.
+   * @return A new {@link RuleIndex}.
+   */
+  public static RuleIndex compile(List<MultiExpression.Entry<Map<String, Object>>> rules) {
+    return new RuleIndex(null, rules);
+  }
+
+  /**
+   * Same as {@link #compile(List)}, but with a name that identifies the index when profiling.
+   *
+   * @param name  A unique name like {@code "roads_osm_kinds"}.
+   * @param rules The rules, in the order they should be applied.
+   * @return A new {@link RuleIndex}.
+   */
+  public static RuleIndex compile(String name, List<MultiExpression.Entry<Map<String, Object>>> rules) {
+    var index = new RuleIndex(name, rules);
+    NAMED_INDEXES.add(index);
+    Stats stats = profilingStats;
+    if (stats != null) {
+      index.startProfiling(stats);
+    }
+    return index;
+  }
+
+  /**
+   * Starts recording per-rule evaluation counts, match counts and evaluation time for all named indexes, including
+   * those compiled later. The values are reported as {@code rule_index_*} counters in {@code stats}.
+   *
+   * @param stats Where to register the counters.
+   */
+  public static synchronized void enableProfiling(Stats stats) {
+    if (profilingStats != null) {
+      return;
+    }
+    profilingStats = stats;
+    for (RuleIndex index : NAMED_INDEXES) {
+      index.startProfiling(stats);
+    }
+  }
+
+  /** Stops profiling and forgets all counts, so that tests do not leak profiling into each other. */
+  static synchronized void resetProfiling() {
+    profilingStats = null;
+    for (RuleIndex index : NAMED_INDEXES) {
+      index.profile = null;
+    }
+  }
+
+  /** The number of times a rule was evaluated since profiling started, or 0 if this index is not profiled. */
+  long evaluations(int rule) {
+    Profile p = profile;
+    return p == null ? 0 : p.evaluations[rule].get();
+  }
+
+  /** The number of times a rule matched since profiling started, or 0 if this index is not profiled. */
+  long matches(int rule) {
+    Profile p = profile;
+    return p == null ? 0 : p.matches[rule].get();
+  }
+
+  /**
+   * Logs the profiled rules of all named indexes, ranked by the time spent evaluating them.
+   *
+   * @param limit The maximum number of rules to log.
+   */
+  public static void logProfile(int limit) {
+    record Row(RuleIndex index, int rule, long evaluations, long matches, long nanos) {}
+    List<Row> rows = new ArrayList<>();
+    for (RuleIndex index : NAMED_INDEXES) {
+      Profile p = index.profile;
+      if (p == null) {
+        continue;
+      }
+      for (int i = 0; i < index.expressions.length; i++) {
+        rows.add(new Row(index, i, p.evaluations[i].get(), p.matches[i].get(), p.nanos[i].get()));
+      }
+    }
+    if (rows.isEmpty()) {
+      return;
+    }
+    rows.sort(Comparator.comparingLong(Row::nanos).reversed());
+
+    LOGGER.info("Rule profile, top {} of {} rules by evaluation time:", Math.min(limit, rows.size()), rows.size());
+    LOGGER.info(String.format("%10s %14s %14s %8s  %s", "time ms", "evaluations", "matches", "match %", "rule"));
+    for (Row row : rows.subList(0, Math.min(limit, rows.size()))) {
+      double matchPercent = row.evaluations == 0 ? 0 : 100d * row.matches / row.evaluations;
+      LOGGER.info(String.format("%10.1f %14d %14d %7.1f%%  %s %s", row.nanos / 1e6, row.evaluations, row.matches,
+        matchPercent, row.index.ruleName(row.rule), row.index.results[row.rule]));
+    }
+
+    List<String> unused = rows.stream()
+      .filter(row -> row.matches == 0)
+      .map(row -> row.index.ruleName(row.rule))
+      .toList();
+    if (!unused.isEmpty()) {
+      LOGGER.info("Rules that never matched: {}", String.join(", ", unused));
+    }
+  }
+
+  private void startProfiling(Stats stats) {
+    if (name == null) {
+      return;
+    }
+    var p = new Profile(expressions.length);
+    stats.counter("rule_index_evaluations", "rule", () -> p.byRuleName(p.evaluations));
+    stats.counter("rule_index_matches", "rule", () -> p.byRuleName(p.matches));
+    stats.counter("rule_index_nanos", "rule", () -> p.byRuleName(p.nanos));
+    profile = p;
+  }
+
+  // rules are identified by their position in the list, starting at 0
+  private String ruleName(int rule) {
+    return name + "#" + rule;
+  }
+
+  private final class Profile {
+    final Counter.MultiThreadCounter[] evaluations;
+    final Counter.MultiThreadCounter[] matches;
+    final Counter.MultiThreadCounter[] nanos;
+
+    Profile(int n) {
+      evaluations = new Counter.MultiThreadCounter[n];
+      matches = new Counter.MultiThreadCounter[n];
+      nanos = new Counter.MultiThreadCounter[n];
+      for (int i = 0; i < n; i++) {
+        evaluations[i] = Counter.newMultiThreadCounter();
+        matches[i] = Counter.newMultiThreadCounter();
+        nanos[i] = Counter.newMultiThreadCounter();
+      }
+    }
+
+    Map<String, Counter.Readable> byRuleName(Counter.MultiThreadCounter[] counters) {
+      Map<String, Counter.Readable> result = new LinkedHashMap<>();
+      for (int i = 0; i < counters.length; i++) {
+        result.put(ruleName(i), counters[i]);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Matches a feature against all rules.
+   *
+   * @param input The feature to match.
+   * @return An empty list if no rule matched, otherwise a list containing the merged key-value pairs of all matching
+   *         rules. The returned list and map must not be modified.
+   */
+  public List<Map<String, Object>> getMatches(WithTags input) {
+    Scratch s = scratch.get();
+    s.clear();
+
+    evaluate(alwaysRules, input, s);
+
+    for (int k = 0; k < valueKeys.length; k++) {
+      Object value = input.getTag(valueKeys[k]);
+      if (value == null) {
+        continue;
+      }
+      // values that are not strings are rare, fall back to checking every rule dispatched on this key
+      int[] candidates = value instanceof String string ? valueRules[k].get(string) : allValueRules[k];
+      if (candidates != null) {
+        evaluate(candidates, input, s);
+      }
+    }
+
+    for (int k = 0; k < presenceKeys.length; k++) {
+      if (input.hasTag(presenceKeys[k])) {
+        evaluate(presenceRules[k], input, s);
+      }
+    }
+
+    if (!s.matched) {
+      return List.of();
+    }
+
+    s.key.rehash();
+    var result = combinations.get(s.key);
+    if (result == null) {
+      var key = new RuleSet(s.key.words.clone());
+      result = combinations.computeIfAbsent(key, this::merge);
+    }
+    return result;
+  }
+
+  /** Returns the conditions of all rules, in declaration order. */
+  List<Expression> expressions() {
+    return List.of(expressions);
+  }
+
+  private void evaluate(int[] candidates, WithTags input, Scratch s) {
+    Profile p = profile;
+    if (p != null) {
+      evaluateProfiled(candidates, input, s, p);
+      return;
+    }
+    for (int rule : candidates) {
+      s.matchKeys.clear();
+      if (expressions[rule].evaluate(input, s.matchKeys)) {
+        s.key.words[rule >>> 6] |= 1L << rule;
+        s.matched = true;
+      }
+    }
+  }
+
+  private void evaluateProfiled(int[] candidates, WithTags input, Scratch s, Profile p) {
+    for (int rule : candidates) {
+      s.matchKeys.clear();
+      long start = System.nanoTime();
+      boolean matched = expressions[rule].evaluate(input, s.matchKeys);
+      p.nanos[rule].incBy(System.nanoTime() - start);
+      p.evaluations[rule].inc();
+      if (matched) {
+        p.matches[rule].inc();
+        s.key.words[rule >>> 6] |= 1L << rule;
+        s.matched = true;
+      }
+    }
+  }
+
+  private List<Map<String, Object>> merge(RuleSet set) {
+    Map<String, Object> merged = new HashMap<>();
+    for (int w = 0; w < set.words.length; w++) {
+      long word = set.words[w];
+      while (word != 0) {
+        int rule = (w << 6) + Long.numberOfTrailingZeros(word);
+        merged.putAll(results[rule]);
+        word &= word - 1;
+      }
+    }
+    return List.of(Collections.unmodifiableMap(merged));
+  }
+
+  private record Dispatch(String key, List<String> values) {}
+
+  private static Dispatch findDispatch(Expression expression) {
+    for (Expression condition : conjuncts(expression)) {
+      Dispatch dispatch = dispatchOf(condition);
+      if (dispatch != null) {
+        return dispatch;
+      }
+    }
+    return null;
+  }
+
+  private static List<Expression> conjuncts(Expression expression) {
+    if (expression instanceof Expression.And and) {
+      List<Expression> result = new ArrayList<>();
+      for (Expression child : and.children()) {
+        result.addAll(conjuncts(child));
+      }
+      return result;
+    }
+    return List.of(expression);
+  }
+
+  private static Dispatch dispatchOf(Expression condition) {
+    if (condition instanceof Expression.MatchField matchField && isPlainKey(matchField.field())) {
+      return new Dispatch(matchField.field(), null);
+    } else if (condition instanceof Expression.MatchAny matchAny && isPlainKey(matchAny.field()) &&
+      !matchAny.matchWhenMissing() && matchAny.exactMatches().size() == matchAny.values().size()) {
+      return new Dispatch(matchAny.field(), List.copyOf(matchAny.exactMatches()));
+    } else if (condition instanceof Expression.Or or && !or.children().isEmpty()) {
+      // with("pm:kind", "a") OR with("pm:kind", "b") can be dispatched on pm:kind as well
+      String key = null;
+      List<String> values = new ArrayList<>();
+      boolean presence = false;
+      for (Expression child : or.children()) {
+        Dispatch dispatch = dispatchOf(child);
+        if (dispatch == null || (key != null && !key.equals(dispatch.key))) {
+          return null;
+        }
+        key = dispatch.key;
+        if (dispatch.values == null) {
+          presence = true;
+        } else {
+          values.addAll(dispatch.values);
+        }
+      }
+      return new Dispatch(key, presence ? null : values);
+    }
+    return null;
+  }
+
+  // nested struct lookups like "names.primary" may not resolve through getTag, so those are never dispatched on
+  private static boolean isPlainKey(String key) {
+    return key.indexOf('.') < 0;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    return list.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /** A set of matching rule indexes, used as the key for merged results. */
+  private static final class RuleSet {
+    private final long[] words;
+    private int hash;
+
+    RuleSet(long[] words) {
+      this.words = words;
+      rehash();
+    }
+
+    void rehash() {
+      hash = Arrays.hashCode(words);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof RuleSet other && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Scratch {
+    final RuleSet key;
+    final List<String> matchKeys = new ArrayList<>();
+    boolean matched;
+
+    Scratch(int words) {
+      key = new RuleSet(new long[words]);
+    }
+
+    void clear() {
+      Arrays.fill(key.words, 0);
+      matched = false;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.protomaps.basemap.feature;
+
+import blue.strategic.parquet.Hydrator;
+import blue.strategic.parquet.HydratorSupplier;
+import blue.strategic.parquet.ParquetReader;
+import com.carrotsearch.hppc.LongHashSet;
+import com.onthegomap.planetiler.reader.osm.OsmElement;
+import com.onthegomap.planetiler.reader.osm.OsmInputFile;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the wikidata IDs referenced by an input, so that {@link QrankDb#retain} can drop the QRank entries that
+ * will never be looked up.
+ * <p>
+ * This is an extra pass over the input. It pays off for regional extracts, which only reference a tiny fraction of
+ * all wikidata items.
+ **/
+public final class WikidataCollector {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WikidataCollector.class);
+
+  private static final String WIKIDATA = "wikidata";
+
+  private WikidataCollector() {}
+
+  /**
+   * Collects the {@code wikidata} tags of all nodes, ways and relations in an OSM PBF file.
+   *
+   * @param pbfPath The OSM PBF file.
+   * @param threads The number of threads decoding blocks.
+   * @return The numeric part of all referenced IDs, e.g. 42 for {@code Q42}.
+   */
+  public static LongHashSet fromOsm(Path pbfPath, int threads) {
+    LongHashSet ids = new LongHashSet();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    // bound the number of blocks waiting to be decoded
+    Semaphore pending = new Semaphore(threads * 4);
+    try (var blocks = new OsmInputFile(pbfPath).get()) {
+      List<Future<?>> futures = new ArrayList<>();
+      blocks.forEachBlock(block -> {
+        pending.acquireUninterruptibly();
+        futures.add(executor.submit(() -> {
+          try {
+            LongHashSet local = new LongHashSet();
+            for (OsmElement element : block.decodeElements()) {
+              if (element.tags().get(WIKIDATA)instanceof String value) {
+                add(local, value);
+              }
+            }
+            synchronized (ids) {
+              ids.addAll(local);
+            }
+          } finally {
+            pending.release();
+          }
+        }));
+      });
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    LOGGER.info("Found {} wikidata IDs in {}", ids.size(), pbfPath);
+    return ids;
+  }
+
+  /**
+   * Collects the {@code wikidata} column of Overture Parquet files. Files without that column are skipped.
+   *
+   * @param parquetPaths The Parquet files.
+   * @return The numeric part of all referenced IDs, e.g. 42 for {@code Q42}.
+   */
+  public static LongHashSet fromParquet(List<Path> parquetPaths) {
+    LongHashSet ids = new LongHashSet();
+    parquetPaths.parallelStream().forEach(path -> {
+      LongHashSet local = new LongHashSet();
+      try {
+        if (!hasColumn(path, WIKIDATA)) {
+          return;
+        }
+        try (var values = ParquetReader.streamContent(path.toFile(), HydratorSupplier.constantly(new ValueHydrator()),
+          List.of(WIKIDATA))) {
+          values.forEach(value -> {
+            if (value instanceof String string) {
+              add(local, string);
+            }
+          });
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      synchronized (ids) {
+        ids.addAll(local);
+      }
+    });
+    LOGGER.info("Found {} wikidata IDs in {} parquet files", ids.size(), parquetPaths.size());
+    return ids;
+  }
+
+  private static boolean hasColumn(Path path, String column) throws IOException {
+    var inputFile = ParquetReader.makeInputFile(path.toFile());
+    try (var reader = ParquetFileReader.open(inputFile, ParquetReadOptions.builder().build())) {
+      return reader.getFooter().getFileMetaData().getSchema().containsField(column);
+    }
+  }
+
+  // "Q1;Q2" references both items
+  private static void add(LongHashSet ids, String value) {
+    int start = 0;
+    while (start < value.length()) {
+      int end = value.indexOf(';', start);
+      if (end < 0) {
+        end = value.length();
+      }
+      long id = QrankDb.parseId(value.substring(start, end).strip());
+      if (id > 0) {
+        ids.add(id);
+      }
+      start = end + 1;
+    }
+  }
+
+  /** Reads the single projected column of each row. */
+  private static final class ValueHydrator implements Hydrator<Object[], Object> {
+    @Override
+    public Object[] start() {
+      return new Object[1];
+    }
+
+    @Override
+    public Object[] add(Object[] target, String heading, Object value) {
+      target[0] = value;
+      return target;
+    }
+
+    @Override
+    public Object finish(Object[] target) {
+      return target[0];
+    }
+  }
+}
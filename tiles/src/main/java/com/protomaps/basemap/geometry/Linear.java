@@ -1,8 +1,10 @@
 package com.protomaps.basemap.geometry;
 
 import java.util.*;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
 import org.locationtech.jts.linearref.LengthIndexedLine;
 
 /**
@@ -70,6 +72,82 @@ public class Linear {
     return segments;
   }
 
+  /**
+   * Split a LineString into the pieces between consecutive fractional positions, in a single walk over its vertices.
+   * Preserves all intermediate vertices like {@link #splitAtFractions(LineString, List)}, but costs O(vertices +
+   * pieces) instead of a walk from the start of the line for each piece.
+   *
+   * @param line      The LineString to split, in the coordinates its length is measured in
+   * @param fractions Sorted fractional positions, usually starting at 0.0 and ending at 1.0, values outside of 0.0-1.0
+   *                  are clamped
+   * @return One LineString per pair of consecutive fractions, pieces of zero length have two equal points
+   */
+  public static List<LineString> splitAtSortedFractions(LineString line, double[] fractions) {
+    CoordinateSequence sequence = line.getCoordinateSequence();
+    int vertices = sequence.size();
+    List<LineString> pieces = new ArrayList<>(Math.max(0, fractions.length - 1));
+    if (vertices < 2 || fractions.length < 2) {
+      return pieces;
+    }
+
+    double totalLength = line.getLength();
+    // the current edge, from vertex edge to edge + 1, and the length of the line up to it
+    int edge = 0;
+    double edgeStart = 0;
+    double edgeLength = sequence.getCoordinate(0).distance(sequence.getCoordinate(1));
+    double[] buffer = new double[2 * (vertices + 2)];
+
+    for (int p = 0; p + 1 < fractions.length; p++) {
+      double startLength = clamp(fractions[p]) * totalLength;
+      double endLength = clamp(fractions[p + 1]) * totalLength;
+
+      // move to the edge the piece starts on, a piece starting on a vertex starts on the edge after it
+      while (edge < vertices - 2 && edgeStart + edgeLength <= startLength) {
+        edgeStart += edgeLength;
+        edge++;
+        edgeLength = sequence.getCoordinate(edge).distance(sequence.getCoordinate(edge + 1));
+      }
+      int size = 0;
+      buffer = ensureCapacity(buffer, size + 2);
+      size = interpolate(sequence, edge, edgeLength, startLength - edgeStart, buffer, size);
+
+      // add the vertices before the end of the piece
+      while (edge < vertices - 2 && edgeStart + edgeLength < endLength) {
+        edgeStart += edgeLength;
+        edge++;
+        edgeLength = sequence.getCoordinate(edge).distance(sequence.getCoordinate(edge + 1));
+        buffer = ensureCapacity(buffer, size + 2);
+        buffer[size++] = sequence.getX(edge);
+        buffer[size++] = sequence.getY(edge);
+      }
+      buffer = ensureCapacity(buffer, size + 2);
+      size = interpolate(sequence, edge, edgeLength, endLength - edgeStart, buffer, size);
+
+      pieces.add(line.getFactory().createLineString(
+        new PackedCoordinateSequence.Double(Arrays.copyOf(buffer, size), 2, 0)));
+    }
+    return pieces;
+  }
+
+  private static double clamp(double fraction) {
+    return Math.clamp(fraction, 0.0, 1.0);
+  }
+
+  private static double[] ensureCapacity(double[] buffer, int size) {
+    return size <= buffer.length ? buffer : Arrays.copyOf(buffer, Math.max(size, buffer.length * 2));
+  }
+
+  // appends the point at distance along the edge from vertex edge to edge + 1
+  private static int interpolate(CoordinateSequence sequence, int edge, double edgeLength, double distance,
+    double[] buffer, int size) {
+    double t = edgeLength > 0 ? Math.clamp(distance / edgeLength, 0.0, 1.0) : 0.0;
+    double x0 = sequence.getX(edge);
+    double y0 = sequence.getY(edge);
+    buffer[size] = x0 + (sequence.getX(edge + 1) - x0) * t;
+    buffer[size + 1] = y0 + (sequence.getY(edge + 1) - y0) * t;
+    return size + 2;
+  }
+
   /**
    * Create list of Segments representing the split ranges between all split points.
    *
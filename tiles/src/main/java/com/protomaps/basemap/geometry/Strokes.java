@@ -0,0 +1,158 @@
+package com.protomaps.basemap.geometry;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.operation.linemerge.LineMerger;
+
+/**
+ * Collects lines from all over the input and joins connected lines with the same key into continuous strokes, once
+ * for the whole input instead of in every tile.
+ * <p>
+ * Lines are added from any thread while the input is read, and joined at nodes where exactly two lines of the same key
+ * meet, the same way {@code FeatureMerge.mergeLineStrings} joins them within a tile.
+ * </p>
+ *
+ * @param <K> The key of the lines that may be joined, usually the attributes of the feature they become.
+ */
+public class Strokes<K> {
+
+  private record Piece(long id, LineString line) {}
+
+  /** Receives the strokes built by {@link #build}. */
+  @FunctionalInterface
+  public interface StrokeConsumer<K> {
+    /**
+     * @param key    The key of the lines the stroke was joined from.
+     * @param id     The smallest ID of the lines the stroke was joined from.
+     * @param stroke The joined line.
+     */
+    void accept(K key, long id, LineString stroke);
+  }
+
+  /** The lines of a group of keys that are held until {@link #build}. */
+  public record Usage(long lines, long points) {
+    /** A rough estimate of the heap the lines take, two doubles per point and the objects around each line. */
+    public long estimatedBytes() {
+      return points * 16 + lines * 160;
+    }
+  }
+
+  private final Map<K, Queue<Piece>> pieces = new ConcurrentHashMap<>();
+
+  /**
+   * Adds a line, or each line of a multi-line geometry.
+   *
+   * @param key  The key of the line, lines are only joined with lines of an equal key.
+   * @param id   The ID of the feature the line belongs to.
+   * @param line The line, in the coordinates the strokes are built in.
+   */
+  public void add(K key, long id, Geometry line) {
+    Queue<Piece> queue = pieces.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>());
+    for (int i = 0; i < line.getNumGeometries(); i++) {
+      // zero-length lines are dropped by the merge, so they must not count as a connection either
+      if (line.getGeometryN(i) instanceof LineString part && !part.isEmpty() && part.getLength() > 0) {
+        queue.add(new Piece(id, part));
+      }
+    }
+  }
+
+  /** The number of lines added and not built yet. */
+  public long size() {
+    return pieces.values().stream().mapToLong(Queue::size).sum();
+  }
+
+  /**
+   * Returns how many lines and points are held for each group of keys.
+   *
+   * @param group Returns the group of a key.
+   */
+  public <G> Map<G, Usage> usage(Function<K, G> group) {
+    Map<G, Usage> usage = new HashMap<>();
+    for (var entry : pieces.entrySet()) {
+      long points = 0;
+      long lines = 0;
+      for (Piece piece : entry.getValue()) {
+        points += piece.line().getNumPoints();
+        lines++;
+      }
+      usage.merge(group.apply(entry.getKey()), new Usage(lines, points),
+        (a, b) -> new Usage(a.lines() + b.lines(), a.points() + b.points()));
+    }
+    return usage;
+  }
+
+  /** Joins the lines of each key into strokes and passes them to {@code consumer}, then forgets the lines. */
+  public void build(StrokeConsumer<K> consumer) {
+    for (var entry : pieces.entrySet()) {
+      // lines arrive in any order from the reader threads, sort them for a stable result
+      List<Piece> group = new ArrayList<>(entry.getValue());
+      if (group.isEmpty()) {
+        continue;
+      }
+      group.sort(Comparator.comparingLong(Piece::id));
+
+      // merge each chain of lines on its own so that every stroke gets the smallest ID of its own lines, the group is
+      // sorted by ID so the first line of a chain has that ID
+      int[] chains = chains(group);
+      Map<Integer, LineMerger> mergers = new LinkedHashMap<>();
+      for (int i = 0; i < group.size(); i++) {
+        mergers.computeIfAbsent(chains[i], c -> new LineMerger()).add(group.get(i).line());
+      }
+      for (var chain : mergers.entrySet()) {
+        long id = group.get(chain.getKey()).id();
+        for (Object merged : chain.getValue().getMergedLineStrings()) {
+          consumer.accept(entry.getKey(), id, (LineString) merged);
+        }
+      }
+    }
+    pieces.clear();
+  }
+
+  /**
+   * Returns the chain of every line, as the index of its first line. Lines are in the same chain if they are connected
+   * through nodes where exactly two line ends meet, the nodes the merge joins lines at.
+   */
+  private static int[] chains(List<Piece> group) {
+    Map<Coordinate, List<Integer>> ends = new HashMap<>();
+    for (int i = 0; i < group.size(); i++) {
+      LineString line = group.get(i).line();
+      ends.computeIfAbsent(line.getCoordinateN(0), c -> new ArrayList<>(2)).add(i);
+      ends.computeIfAbsent(line.getCoordinateN(line.getNumPoints() - 1), c -> new ArrayList<>(2)).add(i);
+    }
+    int[] parent = new int[group.size()];
+    for (int i = 0; i < parent.length; i++) {
+      parent[i] = i;
+    }
+    for (List<Integer> node : ends.values()) {
+      if (node.size() == 2) {
+        int a = root(parent, node.get(0));
+        int b = root(parent, node.get(1));
+        // the smaller index becomes the root, so every root is the first line of its chain
+        parent[Math.max(a, b)] = Math.min(a, b);
+      }
+    }
+    for (int i = 0; i < parent.length; i++) {
+      parent[i] = root(parent, i);
+    }
+    return parent;
+  }
+
+  private static int root(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+}
@@ -11,13 +11,12 @@ import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.FeatureMerge;
 import com.onthegomap.planetiler.ForwardingProfile;
 import com.onthegomap.planetiler.VectorTile;
-import com.onthegomap.planetiler.expression.MultiExpression;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.protomaps.basemap.feature.FeatureId;
+import com.protomaps.basemap.feature.RuleIndex;
 import com.protomaps.basemap.postprocess.Area;
 import java.util.List;
-import java.util.Map;
 
 
 @SuppressWarnings("java:S1192")
@@ -62,7 +61,7 @@ public class Landuse implements ForwardingProfile.LayerPostProcessor {
       Wildlife Sanctuary
     """;
 
-  private static final MultiExpression.Index<Map<String, Object>> index = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex index = RuleIndex.compile("landuse", List.of(
     rule(
       with("""
           amenity
@@ -231,7 +230,7 @@ public class Landuse implements ForwardingProfile.LayerPostProcessor {
       with("protection_title", "National Park"),
       use("kind", "national_park")
     )
-  )).index();
+  ));
 
   public void processOsm(SourceFeature sf, FeatureCollector features) {
     if (sf.canBePolygon()) {
@@ -0,0 +1,186 @@
+package com.protomaps.basemap.layers;
+
+import com.onthegomap.planetiler.reader.SourceFeature;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The linearly referenced properties of an Overture transportation segment: {@code road_flags}, {@code rail_flags},
+ * {@code access_restrictions} and {@code level_rules}.
+ * <p>
+ * Each rule applies to the part of the segment {@code between} two fractions of its length, or to all of it. The rules
+ * are decoded once into primitive arrays, then the segment is cut at every {@code between} fraction and the flags and
+ * level of all pieces are computed in a single pass over the rules.
+ * </p>
+ */
+final class OvertureLinearRefs {
+
+  static final int BRIDGE = 1;
+  static final int TUNNEL = 1 << 1;
+  static final int LINK = 1 << 2;
+  static final int ONEWAY = 1 << 3;
+
+  /** The level of pieces without a level rule. */
+  static final int NO_LEVEL = Integer.MIN_VALUE;
+
+  private static final String[] KEYS = {"road_flags", "rail_flags", "access_restrictions", "level_rules"};
+
+  private double[] starts = new double[4];
+  private double[] ends = new double[4];
+  private int[] flags = new int[4];
+  private int[] levels = new int[4];
+  private int rules = 0;
+
+  // the fractions the segment is cut at, sorted and unique, from 0 to 1
+  private double[] fractions = new double[8];
+  private int fractionCount = 0;
+
+  private OvertureLinearRefs() {}
+
+  static OvertureLinearRefs decode(SourceFeature sf) {
+    OvertureLinearRefs refs = new OvertureLinearRefs();
+    refs.addFraction(0.0);
+    refs.addFraction(1.0);
+    for (String key : KEYS) {
+      if (sf.getTag(key) instanceof List<?> list) {
+        for (Object item : list) {
+          if (item instanceof Map<?, ?> rule) {
+            refs.addRule(key, rule);
+          }
+        }
+      }
+    }
+    refs.sortFractions();
+    return refs;
+  }
+
+  private void addRule(String key, Map<?, ?> rule) {
+    double start = 0.0;
+    double end = 1.0;
+    if (rule.get("between") instanceof List<?> between && between.size() >= 2 &&
+      between.get(0) instanceof Number from && between.get(1) instanceof Number to) {
+      start = from.doubleValue();
+      end = to.doubleValue();
+      // every rule with a range cuts the segment, even if it does not set anything
+      addFraction(start);
+      addFraction(end);
+    }
+
+    int ruleFlags = 0;
+    int level = NO_LEVEL;
+    switch (key) {
+      case "road_flags", "rail_flags" -> {
+        if (rule.get("values") instanceof List<?> values) {
+          for (Object value : values) {
+            if ("is_bridge".equals(value)) {
+              ruleFlags |= BRIDGE;
+            } else if ("is_tunnel".equals(value)) {
+              ruleFlags |= TUNNEL;
+            } else if ("is_link".equals(value)) {
+              ruleFlags |= LINK;
+            }
+          }
+        }
+      }
+      case "access_restrictions" -> {
+        if ("denied".equals(rule.get("access_type")) && rule.get("when") instanceof Map<?, ?> when &&
+          "backward".equals(when.get("heading"))) {
+          ruleFlags = ONEWAY;
+        }
+      }
+      default -> {
+        if (rule.get("value") instanceof Number value) {
+          level = value.intValue();
+        }
+      }
+    }
+
+    if (ruleFlags != 0 || level != NO_LEVEL) {
+      if (rules == starts.length) {
+        starts = Arrays.copyOf(starts, rules * 2);
+        ends = Arrays.copyOf(ends, rules * 2);
+        flags = Arrays.copyOf(flags, rules * 2);
+        levels = Arrays.copyOf(levels, rules * 2);
+      }
+      starts[rules] = start;
+      ends[rules] = end;
+      flags[rules] = ruleFlags;
+      levels[rules] = level;
+      rules++;
+    }
+  }
+
+  private void addFraction(double fraction) {
+    if (fractionCount == fractions.length) {
+      fractions = Arrays.copyOf(fractions, fractionCount * 2);
+    }
+    // clamp before deduplicating, so that ranges slightly outside of the segment don't create empty pieces
+    fractions[fractionCount++] = Math.clamp(fraction, 0.0, 1.0);
+  }
+
+  private void sortFractions() {
+    Arrays.sort(fractions, 0, fractionCount);
+    int unique = 0;
+    for (int i = 0; i < fractionCount; i++) {
+      if (unique == 0 || fractions[i] != fractions[unique - 1]) {
+        fractions[unique++] = fractions[i];
+      }
+    }
+    fractionCount = unique;
+  }
+
+  /** Whether the segment needs to be cut into more than one piece. */
+  boolean isSplit() {
+    return fractionCount > 2;
+  }
+
+  /** The fractions the segment is cut at, sorted, starting at 0 and ending at 1. Piece i is between i and i + 1. */
+  double[] fractions() {
+    return Arrays.copyOf(fractions, fractionCount);
+  }
+
+  int pieceCount() {
+    return fractionCount - 1;
+  }
+
+  /**
+   * Computes the flags and level of every piece.
+   *
+   * @param pieceFlags  Receives the flags of the pieces, of at least {@link #pieceCount} length.
+   * @param pieceLevels Receives the levels of the pieces, {@link #NO_LEVEL} for pieces without a level rule.
+   */
+  void resolve(int[] pieceFlags, int[] pieceLevels) {
+    int pieces = pieceCount();
+    Arrays.fill(pieceFlags, 0, pieces, 0);
+    Arrays.fill(pieceLevels, 0, pieces, NO_LEVEL);
+    for (int r = 0; r < rules; r++) {
+      // the pieces overlapping the rule's range, piece i from fractions[i] to fractions[i + 1]
+      int first = Math.max(0, upperBound(starts[r]) - 1);
+      for (int i = first; i < pieces && fractions[i] < ends[r]; i++) {
+        if (fractions[i + 1] > starts[r]) {
+          pieceFlags[i] |= flags[r];
+          if (levels[r] != NO_LEVEL) {
+            // a later level rule wins
+            pieceLevels[i] = levels[r];
+          }
+        }
+      }
+    }
+  }
+
+  // the index of the first fraction above value
+  private int upperBound(double value) {
+    int low = 0;
+    int high = fractionCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (fractions[mid] <= value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
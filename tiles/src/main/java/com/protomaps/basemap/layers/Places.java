@@ -12,14 +12,15 @@ import static com.protomaps.basemap.feature.Matcher.without;
 import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.ForwardingProfile;
 import com.onthegomap.planetiler.VectorTile;
-import com.onthegomap.planetiler.expression.MultiExpression;
-import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.util.SortKey;
 import com.onthegomap.planetiler.util.ZoomFunction;
+import com.protomaps.basemap.feature.Classifier;
 import com.protomaps.basemap.feature.CountryCoder;
+import com.protomaps.basemap.feature.FeatureContext;
 import com.protomaps.basemap.feature.FeatureId;
 import com.protomaps.basemap.feature.Matcher;
+import com.protomaps.basemap.feature.RuleIndex;
 import com.protomaps.basemap.names.OsmNames;
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -28,7 +29,6 @@ import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,7 +66,7 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
     1000000000
   };
 
-  private static final MultiExpression.Index<Map<String, Object>> osmKindsIndex = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex osmKindsIndex = RuleIndex.compile("places_osm_kinds", List.of(
 
     rule(use("pm:kind", "pm:undefined")),
     rule(with("population"), use("pm:population", fromTag("population"))),
@@ -99,12 +99,11 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
     rule(with("place", "allotments"), use("pm:kind", "locality")),
     rule(with("place", "allotments"), without("population"), use("pm:populationFallback", 1000))
 
-  )).index();
+  ));
 
   // Overture properties to Protomaps kind mapping
 
-  private static final MultiExpression.Index<Map<String, Object>> overtureKindsIndex =
-    MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex overtureKindsIndex = RuleIndex.compile("places_overture_kinds", List.of(
 
       rule(with("subtype", "locality"), with("class", "city"), use("pm:kind", "locality"),
         use("pm:kindDetail", "city")),
@@ -114,11 +113,11 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
       rule(with("subtype", "neighborhood", "microhood"), use("pm:kind", "neighbourhood"),
         use("pm:kindDetail", "neighbourhood"))
 
-    )).index();
+    ));
 
   // Protomaps kind/kind_detail to min_zoom/max_zoom/kind_rank mapping
 
-  private static final MultiExpression.Index<Map<String, Object>> zoomsIndex = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex zoomsIndex = RuleIndex.compile("places_zooms", List.of(
     // Top-level defaults
     rule(use("pm:minzoom", 12), use("pm:maxzoom", 15)),
 
@@ -156,7 +155,7 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
     rule(with("pm:kind", "neighbourhood"), use("pm:kindRank", 11), use("pm:minzoom", 12)),
     rule(with("pm:kind", "neighbourhood"), with("pm:kindDetail", "suburb"), use("pm:kindRank", 9),
       use("pm:minzoom", 12))
-  )).index();
+  ));
 
   private record WikidataConfig(int minZoom, int maxZoom, int rankMax) {}
 
@@ -230,18 +229,49 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
       15, 3
     ), 0);
 
-  private Map<String, Object> makeTagMap(String kind, String kindDetail, Integer population,
-    Integer populationFallback) {
-    Map<String, Object> computedTags = new HashMap<>();
+  private static void putComputedTags(Matcher.ComputedTags computedTags, String kind, String kindDetail,
+    Integer population, Integer populationFallback) {
+    computedTags
+      .put("pm:kind", kind)
+      .put("pm:kindDetail", kindDetail)
+      .put("pm:population", population);
 
-    computedTags.put("pm:kind", kind);
-    computedTags.put("pm:kindDetail", kindDetail);
-    computedTags.put("pm:population", population);
     if (populationFallback > 0) {
       computedTags.put("pm:populationFallback", populationFallback);
     }
+  }
 
-    return computedTags;
+  // pm:country is only looked up for the places whose rules check it
+  private final Classifier<SourceFeature> osmClassifier = Classifier.of(
+    (sf, computedTags) -> computedTags.putLazy("pm:country",
+      () -> FeatureContext.of(sf).countryCode(countryCoder).orElse(null)),
+    osmKindsIndex, zoomsIndex, (sf, matches, computedTags) -> {
+      String kind = getString(sf, matches, "pm:kind", "pm:undefined");
+      if ("pm:undefined".equals(kind)) {
+        return false;
+      }
+      putComputedTags(computedTags, kind, getString(sf, matches, "pm:kindDetail", ""),
+        getInteger(sf, matches, "pm:population", 0), getInteger(sf, matches, "pm:populationFallback", 0));
+      return true;
+    });
+
+  private static final Classifier<SourceFeature> overtureClassifier =
+    Classifier.of(overtureKindsIndex, zoomsIndex, (sf, matches, computedTags) -> {
+      String kind = getString(sf, matches, "pm:kind", "pm:undefined");
+      if ("pm:undefined".equals(kind)) {
+        return false;
+      }
+      int population = getOverturePopulation(sf);
+      putComputedTags(computedTags, kind, getString(sf, matches, "pm:kindDetail", ""), population,
+        (population > 0) ? 0 : 1);
+      return true;
+    });
+
+  private static int getOverturePopulation(SourceFeature sf) {
+    if (sf.getTag("population")instanceof Number number) {
+      return number.intValue();
+    }
+    return 0;
   }
 
   public void processOsm(SourceFeature sf, FeatureCollector features) {
@@ -249,16 +279,8 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
       return;
     }
 
-    try {
-      Optional<String> code = countryCoder.getCountryCode(sf.latLonGeometry());
-      if (code.isPresent()) {
-        sf.setTag("pm:country", code.get());
-      }
-    } catch (GeometryException e) {
-      // do nothing
-    }
-
-    var matches = osmKindsIndex.getMatches(sf);
+    var classification = osmClassifier.classify(sf);
+    var matches = classification.kindMatches();
 
     String kind = getString(sf, matches, "pm:kind", "pm:undefined");
     String kindDetail = getString(sf, matches, "pm:kindDetail", "");
@@ -269,15 +291,12 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
       return;
     }
 
-    var computedTags = makeTagMap(kind, kindDetail, population, populationFallback);
-    var sf2 = new Matcher.SourceFeatureWithComputedTags(sf, computedTags);
-
     // Use populationFallback for sorting if no real population
     if (population == 0 && populationFallback > 0) {
       population = populationFallback;
     }
 
-    var zp = getZoomsPops(sf2, kind, population);
+    var zp = getZoomsPops(sf, classification.zoomMatches(), kind, population);
     int minZoom = zp.minZoom();
     int maxZoom = zp.maxZoom();
     int kindRank = zp.kindRank();
@@ -338,7 +357,8 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
       return;
     }
 
-    var matches = overtureKindsIndex.getMatches(sf);
+    var classification = overtureClassifier.classify(sf);
+    var matches = classification.kindMatches();
 
     String kind = getString(sf, matches, "pm:kind", "pm:undefined");
     String kindDetail = getString(sf, matches, "pm:kindDetail", "");
@@ -348,23 +368,12 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
     }
 
     // Extract population (if available)
-    Integer population = 0;
-    if (sf.hasTag("population")) {
-      Object popValue = sf.getTag("population");
-      if (popValue instanceof Number number) {
-        population = number.intValue();
-      }
-    }
-
-    Integer populationFallback = (population > 0) ? 0 : 1;
-
-    var computedTags = makeTagMap(kind, kindDetail, population, populationFallback);
-    var sf2 = new Matcher.SourceFeatureWithComputedTags(sf, computedTags);
+    Integer population = getOverturePopulation(sf);
 
     // Extract name
     String name = sf.getString("names.primary");
 
-    var zp = getZoomsPops(sf2, kind, population);
+    var zp = getZoomsPops(sf, classification.zoomMatches(), kind, population);
     int minZoom = zp.minZoom();
     int maxZoom = zp.maxZoom();
     int kindRank = zp.kindRank();
@@ -398,11 +407,11 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
 
   record ZoomsPops(int minZoom, int maxZoom, int kindRank, int populationRank) {}
 
-  private ZoomsPops getZoomsPops(Matcher.SourceFeatureWithComputedTags sf2, String kind, int population) {
-    var zoomMatches = zoomsIndex.getMatches(sf2);
-    int minZoom = getInteger(sf2, zoomMatches, "pm:minzoom", 99);
-    int maxZoom = getInteger(sf2, zoomMatches, "pm:maxzoom", 99);
-    int kindRank = getInteger(sf2, zoomMatches, "pm:kindRank", 99);
+  private ZoomsPops getZoomsPops(SourceFeature sf, List<Map<String, Object>> zoomMatches, String kind,
+    int population) {
+    int minZoom = getInteger(sf, zoomMatches, "pm:minzoom", 99);
+    int maxZoom = getInteger(sf, zoomMatches, "pm:maxzoom", 99);
+    int kindRank = getInteger(sf, zoomMatches, "pm:kindRank", 99);
 
     int populationRank = 0;
     for (int i = 0; i < popBreaks.length; i++) {
@@ -411,8 +420,8 @@ public class Places implements ForwardingProfile.LayerPostProcessor {
       }
     }
 
-    if (WIKIDATA_CONFIGS.containsKey(sf2.getString("wikidata"))) {
-      var wikidataConfig = WIKIDATA_CONFIGS.get(sf2.getString("wikidata"));
+    if (WIKIDATA_CONFIGS.containsKey(sf.getString("wikidata"))) {
+      var wikidataConfig = WIKIDATA_CONFIGS.get(sf.getString("wikidata"));
       if (kind.equals("country") || kind.equals("region")) {
         minZoom = wikidataConfig.minZoom();
         maxZoom = wikidataConfig.maxZoom();
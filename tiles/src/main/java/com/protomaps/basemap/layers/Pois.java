@@ -15,13 +15,15 @@ import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.ForwardingProfile;
 import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.expression.Expression;
-import com.onthegomap.planetiler.expression.MultiExpression;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
+import com.protomaps.basemap.feature.Classifier;
+import com.protomaps.basemap.feature.FeatureContext;
 import com.protomaps.basemap.feature.FeatureId;
 import com.protomaps.basemap.feature.Matcher;
 import com.protomaps.basemap.feature.QrankDb;
+import com.protomaps.basemap.feature.RuleIndex;
 import com.protomaps.basemap.names.OsmNames;
 import java.util.List;
 import java.util.Map;
@@ -76,7 +78,7 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
 
   // OSM tags to Protomaps kind/kind_detail mapping
 
-  private static final MultiExpression.Index<Map<String, Object>> osmKindsIndex = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex osmKindsIndex = RuleIndex.compile("pois_osm_kinds", List.of(
 
     // Everything is undefined at first
     rule(use("pm:kind", "pm:undefined"), use("pm:kindDetail", "pm:undefined")),
@@ -192,13 +194,12 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
     rule(with("religion"), use("pm:kindDetail", fromTag("religion"))),
     rule(with("cuisine"), use("pm:kindDetail", fromTag("cuisine")))
 
-  )).index();
+  ));
 
 
   // Overture properties to Protomaps kind/kind_detail mapping
 
-  private static final MultiExpression.Index<Map<String, Object>> overtureKindsIndex =
-    MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex overtureKindsIndex = RuleIndex.compile("pois_overture_kinds", List.of(
 
       // Everything is undefined at first
       rule(use("pm:kind", "pm:undefined"), use("pm:kindDetail", "pm:undefined")),
@@ -214,11 +215,11 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
       rule(with("basic_category", "sport_stadium"), use("pm:kind", "stadium")),
       rule(with("basic_category", "place_of_learning", "middle_school"), use("pm:kind", "school"))
 
-    )).index();
+    ));
 
   // Protomaps kind/kind_detail to min_zoom mapping for points
 
-  private static final MultiExpression.Index<Map<String, Object>> pointZoomsIndex = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex pointZoomsIndex = RuleIndex.compile("pois_point_zooms", List.of(
 
     // Every point is zoom=15 at first
     rule(use("pm:minzoom", 15)),
@@ -289,7 +290,7 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
       use("pm:minzoom", 16)
     )
 
-  )).index();
+  ));
 
   // Shorthand expressions to save space below
 
@@ -303,8 +304,7 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
 
   // Protomaps kind/kind_detail to min_zoom mapping for named polygons
 
-  private static final MultiExpression.Index<Map<String, Object>> namedPolygonZoomsIndex =
-    MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex namedPolygonZoomsIndex = RuleIndex.compile("pois_named_polygon_zooms", List.of(
 
       // Every named polygon is zoom=15 at first
       rule(use("pm:minzoom", 15)),
@@ -403,7 +403,7 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
       rule(WITH_ETC, withinRange("pm:wayarea", 5e6, 2e7), use("pm:minzoom", 8)),
       rule(WITH_ETC, atLeast("pm:wayarea", 2e7), use("pm:minzoom", 7))
 
-    )).index();
+    ));
 
   @Override
   public String name() {
@@ -414,18 +414,24 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
   private static final double WORLD_AREA_FOR_70_SQUARE_METERS =
     Math.pow(GeoUtils.metersToPixelAtEquator(0, Math.sqrt(70)) / 256d, 2);
 
-  private boolean isNamedPolygon(SourceFeature sf) {
+  private static boolean isNamedPolygon(SourceFeature sf) {
     return sf.canBePolygon() && sf.hasTag("name") && sf.getString("name") != null;
   }
 
-  public Matcher.SourceFeatureWithComputedTags computeExtraTags(SourceFeature sf, String kind) {
+  private static boolean computeExtraTags(SourceFeature sf, List<Map<String, Object>> kindMatches,
+    Matcher.ComputedTags computedTags) {
+    String kind = getString(sf, kindMatches, "pm:kind", "pm:undefined");
+    if (kind.equals("pm:undefined")) {
+      return false;
+    }
+
     Double wayArea = 0.0;
     Double height = 0.0;
     boolean hasNamedPolygon = isNamedPolygon(sf);
 
     if (hasNamedPolygon) {
       try {
-        wayArea = sf.worldGeometry().getEnvelopeInternal().getArea() / WORLD_AREA_FOR_70_SQUARE_METERS;
+        wayArea = FeatureContext.of(sf).envelopeArea() / WORLD_AREA_FOR_70_SQUARE_METERS;
       } catch (GeometryException e) {
         e.log("Exception in POI way calculation");
       }
@@ -437,17 +443,25 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
       }
     }
 
-    Map<String, Object> computedTags;
+    computedTags
+      .put("pm:kind", kind)
+      .put("pm:wayarea", wayArea)
+      .put("pm:height", height);
 
     if (hasNamedPolygon) {
-      computedTags = Map.of("pm:kind", kind, "pm:wayarea", wayArea, "pm:height", height, "pm:hasNamedPolygon", true);
-    } else {
-      computedTags = Map.of("pm:kind", kind, "pm:wayarea", wayArea, "pm:height", height);
+      computedTags.put("pm:hasNamedPolygon", true);
     }
 
-    return new Matcher.SourceFeatureWithComputedTags(sf, computedTags);
+    return true;
   }
 
+  private static final Classifier<SourceFeature> osmPointClassifier =
+    Classifier.of(osmKindsIndex, pointZoomsIndex, Pois::computeExtraTags);
+  private static final Classifier<SourceFeature> osmNamedPolygonClassifier =
+    Classifier.of(osmKindsIndex, namedPolygonZoomsIndex, Pois::computeExtraTags);
+  private static final Classifier<SourceFeature> overtureClassifier =
+    Classifier.of(overtureKindsIndex, pointZoomsIndex, Pois::computeExtraTags);
+
   public void processOsm(SourceFeature sf, FeatureCollector features) {
     boolean hasNamedPolygon = isNamedPolygon(sf);
 
@@ -455,8 +469,9 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
     if (!sf.isPoint() && !hasNamedPolygon)
       return;
 
-    // Map the Protomaps "pm:kind" classification to incoming tags
-    var kindMatches = osmKindsIndex.getMatches(sf);
+    // Map the Protomaps "pm:kind" classification to incoming tags, and get the matching zooms
+    var classification = hasNamedPolygon ? osmNamedPolygonClassifier.classify(sf) : osmPointClassifier.classify(sf);
+    var kindMatches = classification.kindMatches();
 
     // Output feature and its basic values to assign
     FeatureCollector.Feature outputFeature;
@@ -477,12 +492,8 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
       // Set minZoom from QRank
       minZoom = qrankedZoom.get();
     } else {
-      // Calculate minZoom using zooms indexes
-      var sf2 = computeExtraTags(sf, getString(sf, kindMatches, "pm:kind", "pm:undefined"));
-      var zoomMatches = hasNamedPolygon ? namedPolygonZoomsIndex.getMatches(sf2) : pointZoomsIndex.getMatches(sf2);
-
       // Initial minZoom
-      minZoom = getInteger(sf2, zoomMatches, "pm:minzoom", 99);
+      minZoom = getInteger(sf, classification.zoomMatches(), "pm:minzoom", 99);
 
       // Adjusted minZoom
       if (hasNamedPolygon) {
@@ -575,8 +586,9 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
       return;
     }
 
-    // Map the Protomaps "pm:kind" classification to incoming tags
-    var kindMatches = overtureKindsIndex.getMatches(sf);
+    // Map the Protomaps "pm:kind" classification to incoming tags, and get the matching zooms
+    var classification = overtureClassifier.classify(sf);
+    var kindMatches = classification.kindMatches();
 
     String kind = getString(sf, kindMatches, "pm:kind", "pm:undefined");
     Integer minZoom;
@@ -601,12 +613,7 @@ public class Pois implements ForwardingProfile.LayerPostProcessor {
       // Set minZoom from QRank
       minZoom = qrankedZoom.get();
     } else {
-      // Calculate minZoom using zooms indexes
-      var sf2 = computeExtraTags(sf, getString(sf, kindMatches, "pm:kind", "pm:undefined"));
-      var zoomMatches = pointZoomsIndex.getMatches(sf2);
-
-      // Initial minZoom
-      minZoom = getInteger(sf2, zoomMatches, "pm:minzoom", 99);
+      minZoom = getInteger(sf, classification.zoomMatches(), "pm:minzoom", 99);
     }
 
     String name = sf.getString("names.primary");
@@ -12,33 +12,73 @@ import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.FeatureMerge;
 import com.onthegomap.planetiler.ForwardingProfile;
 import com.onthegomap.planetiler.VectorTile;
-import com.onthegomap.planetiler.expression.MultiExpression;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.reader.SimpleFeature;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.reader.osm.OsmElement;
 import com.onthegomap.planetiler.reader.osm.OsmRelationInfo;
+import com.protomaps.basemap.feature.Classifier;
 import com.protomaps.basemap.feature.CountryCoder;
+import com.protomaps.basemap.feature.FeatureContext;
 import com.protomaps.basemap.feature.FeatureId;
-import com.protomaps.basemap.feature.Matcher;
+import com.protomaps.basemap.feature.RuleIndex;
 import com.protomaps.basemap.geometry.Linear;
+import com.protomaps.basemap.geometry.Strokes;
 import com.protomaps.basemap.locales.CartographicLocale;
 import com.protomaps.basemap.names.OsmNames;
 import java.util.*;
+import java.util.function.Consumer;
 import org.locationtech.jts.geom.LineString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @SuppressWarnings("java:S1192")
-public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingProfile.OsmRelationPreprocessor {
+public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingProfile.OsmRelationPreprocessor,
+  ForwardingProfile.FinishHandler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Roads.class);
+
+  // the highest zoom rendered from strokes, the regular features start one zoom above
+  static final int STROKE_MAX_ZOOM = 11;
+  // marks strokes until post-processing, which leaves them out of the per-tile merge
+  private static final String STROKE_TAG = "pm:stroke";
 
   private final CountryCoder countryCoder;
+  private final Classifier<SourceFeature> osmClassifier;
+  // highways visible at low zooms, joined before tiling, or null to leave joining to the post-process step
+  private final Strokes<StrokeKey> strokes;
+
+  /**
+   * The attributes of a highway at the zooms rendered from strokes. Highways are only joined into a stroke if they look
+   * the same at each of these zooms.
+   */
+  private record StrokeKey(int minZoom, Map<String, Object> attrs, Map<String, Integer> attrMinZooms) {}
 
   public Roads(CountryCoder countryCoder) {
+    this(countryCoder, false);
+  }
+
+  /**
+   * @param countryCoder Finds the country of roads for their shields.
+   * @param buildStrokes Whether to join connected OSM highways with the same attributes into strokes once for the whole
+   *                     input, for zooms up to {@value #STROKE_MAX_ZOOM}, instead of in every tile.
+   */
+  public Roads(CountryCoder countryCoder, boolean buildStrokes) {
     this.countryCoder = countryCoder;
+    this.strokes = buildStrokes ? new Strokes<>() : null;
+    this.osmClassifier = Classifier.of(osmKindsIndex, highwayZoomsIndex, (sf, kindMatches, tags) -> {
+      tags.put("pm:kind", getString(sf, kindMatches, "pm:kind", "other"))
+        .put("pm:kindDetail", getString(sf, kindMatches, "pm:kindDetail", ""))
+        .put("pm:highway", sf.getString("highway"))
+        .putLazy("pm:country", () -> FeatureContext.of(sf).countryCode(countryCoder).orElse(null));
+      return true;
+    });
   }
 
   public static final String LAYER_NAME = "roads";
 
-  private static final MultiExpression.Index<Map<String, Object>> osmKindsIndex = MultiExpression.of(List.of(
+  private static final RuleIndex osmKindsIndex = RuleIndex.compile("roads_osm_kinds", List.of(
     rule(
       use("pm:kindDetail", fromTag("highway")),
       use("pm:highway", fromTag("highway"))
@@ -82,9 +122,9 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
       use("pm:kind", "path"),
       use("pm:kindDetail", "corridor") // fromTag("footway") fails tests
     )
-  )).index();
+  ));
 
-  private static final MultiExpression.Index<Map<String, Object>> indexNonHighways = MultiExpression.of(List.of(
+  private static final RuleIndex indexNonHighways = RuleIndex.compile("roads_osm_non_highways", List.of(
     rule(
       with("railway"),
       use("kind", "rail"),
@@ -157,12 +197,11 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
       use("kindDetail", "runway"),
       use("minZoom", 9)
     )
-  )).index();
+  ));
 
   // Overture properties to Protomaps kind mapping
 
-  private static final MultiExpression.Index<Map<String, Object>> overtureRoadKindsIndex =
-    MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex overtureRoadKindsIndex = RuleIndex.compile("roads_overture_road_kinds", List.of(
 
       // Everything is undefined at first
       rule(use("pm:kind", "pm:undefined"), use("pm:kindDetail", "pm:undefined"), use("pm:highway", "pm:undefined")),
@@ -198,10 +237,9 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
       // Assign kind_detail=service if appropriate
       rule(with("class", "service"), use("pm:kindDetail", "service"))
 
-    )).index();
+    ));
 
-  private static final MultiExpression.Index<Map<String, Object>> overtureRailKindsIndex =
-    MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex overtureRailKindsIndex = RuleIndex.compile("roads_overture_rail_kinds", List.of(
 
       // Everything is undefined at first
       rule(use("pm:kind", "pm:undefined"), use("pm:kindDetail", "pm:undefined"), use("pm:highway", "pm:undefined")),
@@ -209,18 +247,16 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
       // Move Overture type=segment/subtype=rail class to kind_detail
       rule(with("class"), use("pm:kind", "rail"), use("pm:kindDetail", fromTag("class")))
 
-    )).index();
+    ));
 
-  private static final MultiExpression.Index<Map<String, Object>> overtureWaterKindsIndex =
-    MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex overtureWaterKindsIndex = RuleIndex.compile("roads_overture_water_kinds", List.of(
 
       // All Overture type=segment/subtype=water is going to be kind=ferry for now
       rule(use("pm:kind", "ferry"), use("pm:kindDetail", "pm:undefined"), use("pm:highway", "pm:undefined"))
 
-    )).index();
+    ));
 
-  private static final MultiExpression.Index<Map<String, Object>> overtureAerowayKindsIndex =
-    MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex overtureAerowayKindsIndex = RuleIndex.compile("roads_overture_aeroway_kinds", List.of(
       rule(use("pm:kind", "pm:undefined"), use("pm:kindDetail", "pm:undefined"), use("pm:highway", "pm:undefined")),
       rule(with("class", "runway"), use("pm:kind", "aeroway"), use("pm:kindDetail", "runway"),
         use("pm:highway", "aeroway")),
@@ -228,11 +264,11 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
         use("pm:highway", "aeroway")),
       rule(with("class", "taxilane"), use("pm:kind", "aeroway"), use("pm:kindDetail", "taxiway"),
         use("pm:highway", "aeroway"))
-    )).index();
+    ));
 
   // Protomaps kind/kind_detail to min_zoom mapping
 
-  private static final MultiExpression.Index<Map<String, Object>> highwayZoomsIndex = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex highwayZoomsIndex = RuleIndex.compile("roads_highway_zooms", List.of(
 
     // Everything is ~14 at first
     rule(use("pm:minzoom", 14), use("pm:minzoomName", 14), use("pm:minzoomShield", 12)),
@@ -285,24 +321,41 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
     ),
 
     // Freeways in the US are special
+    // pm:country comes last so the country is only looked up for the roads these rules are about
 
     rule(
-      with("pm:country", "US"),
       with("highway", "motorway", "motorway_link", "trunk", "trunk_link"),
+      with("pm:country", "US"),
       use("pm:minzoom", 7)
     ),
     rule(
-      with("pm:country", "US"),
       with("_r_network_US:US"),
+      with("pm:country", "US"),
       use("pm:minzoom", 6)
     ),
     rule(
-      with("pm:country", "US"),
       with("_r_network_US:I"),
+      with("pm:country", "US"),
       use("pm:minzoom", 3)
     )
 
-  )).index();
+  ));
+
+
+  private static final Classifier.Carry<SourceFeature> OVERTURE_CARRY = (sf, kindMatches, tags) -> {
+    String kind = getString(sf, kindMatches, "pm:kind", "pm:undefined");
+    tags.put("pm:kind", kind)
+      .put("pm:kindDetail", getString(sf, kindMatches, "pm:kindDetail", "pm:undefined"))
+      .put("pm:highway", getString(sf, kindMatches, "pm:highway", "pm:undefined"));
+    return !"pm:undefined".equals(kind);
+  };
+
+  private static final Classifier<SourceFeature> overtureRoadClassifier =
+    Classifier.of(overtureRoadKindsIndex, highwayZoomsIndex, OVERTURE_CARRY);
+  private static final Classifier<SourceFeature> overtureRailClassifier =
+    Classifier.of(overtureRailKindsIndex, highwayZoomsIndex, OVERTURE_CARRY);
+  private static final Classifier<SourceFeature> overtureWaterClassifier =
+    Classifier.of(overtureWaterKindsIndex, highwayZoomsIndex, OVERTURE_CARRY);
 
   @Override
   public String name() {
@@ -341,21 +394,16 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
 
     String highway = sf.getString("highway");
 
-    var locale = new CartographicLocale();
-
-    try {
-      var code = countryCoder.getCountryCode(sf.latLonGeometry());
-      code.ifPresent(s -> sf.setTag("pm:country", s));
-      locale = CountryCoder.getLocale(code);
-    } catch (GeometryException e) {
-      e.log("Failed to determine country code");
-    }
-
+    // The locale is only needed for route relations, most roads never look up their country
+    CartographicLocale locale = null;
     var relationShields = new ArrayList<CartographicLocale.Shield>();
 
     for (var routeInfo : sf.relationInfo(RouteRelationInfo.class)) {
       RouteRelationInfo relation = routeInfo.relation();
       if (relation.network != null) {
+        if (locale == null) {
+          locale = FeatureContext.of(sf).locale(countryCoder);
+        }
         // Collapse carriageway variants (US:I:Local, US:I:Express) onto their base network so
         // the shield and the minzoom rules below treat them like the route they belong to.
         String network = locale.normalizeNetwork(relation.network);
@@ -367,9 +415,13 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
     // Shields come only from route relations; the locale orders, de-duplicates and caps them.
     // Roads that are not a member of any route relation get no shield (the way's own ref tag is
     // ignored, since it produces networkless, often low-quality shields).
-    var shields = locale.orderShields(relationShields);
+    List<CartographicLocale.Shield> shields =
+      locale == null ? List.of() : locale.orderShields(relationShields);
 
-    var matches = osmKindsIndex.getMatches(sf);
+    // Classify kind and calculate minZoom using zooms indexes
+    var classification = osmClassifier.classify(sf);
+    var matches = classification.kindMatches();
+    var zoomMatches = classification.zoomMatches();
 
     String kind = getString(sf, matches, "pm:kind", "other");
     String kindDetail = getString(sf, matches, "pm:kindDetail", "");
@@ -377,17 +429,10 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
     int minZoomShieldText;
     int minZoomNames;
 
-    // Calculate minZoom using zooms indexes
-    var sf2 = new Matcher.SourceFeatureWithComputedTags(
-      sf,
-      Map.of("pm:kind", kind, "pm:kindDetail", kindDetail, "pm:highway", highway)
-    );
-    var zoomMatches = highwayZoomsIndex.getMatches(sf2);
-
     // Initial minZoom
-    minZoom = getInteger(sf2, zoomMatches, "pm:minzoom", 99);
-    minZoomShieldText = getInteger(sf2, zoomMatches, "pm:minzoomShield", 99);
-    minZoomNames = getInteger(sf2, zoomMatches, "pm:minzoomName", 99);
+    minZoom = getInteger(sf, zoomMatches, "pm:minzoom", 99);
+    minZoomShieldText = getInteger(sf, zoomMatches, "pm:minzoomShield", 99);
+    minZoomNames = getInteger(sf, zoomMatches, "pm:minzoomName", 99);
 
     minZoom = sf.hasTag("access", "private", "no") ? Math.max(minZoom, 15) : minZoom;
 
@@ -448,6 +493,57 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
     feat.setSortKey(minZoom);
 
     OsmNames.setOsmNames(feat, sf, minZoomNames);
+
+    if (strokes != null && minZoom <= STROKE_MAX_ZOOM) {
+      try {
+        strokes.add(strokeKey(feat, minZoom), FeatureId.create(sf), sf.worldGeometry());
+        feat.setMinZoom(STROKE_MAX_ZOOM + 1);
+      } catch (GeometryException e) {
+        e.log("Failed to add road to strokes");
+      }
+    }
+  }
+
+  private static StrokeKey strokeKey(FeatureCollector.Feature feature, int minZoom) {
+    Map<String, Object> attrs = new HashMap<>();
+    Map<String, Integer> attrMinZooms = new HashMap<>();
+    for (int zoom = minZoom; zoom <= STROKE_MAX_ZOOM; zoom++) {
+      for (var attr : feature.getAttrsAtZoom(zoom).entrySet()) {
+        if (attr.getValue() != null && attrs.putIfAbsent(attr.getKey(), attr.getValue()) == null) {
+          attrMinZooms.put(attr.getKey(), zoom);
+        }
+      }
+    }
+    return new StrokeKey(minZoom, attrs, attrMinZooms);
+  }
+
+  @Override
+  public void finish(String sourceName, FeatureCollector.Factory featureCollectors,
+    Consumer<FeatureCollector.Feature> emit) {
+    if (strokes == null || !"osm".equals(sourceName)) {
+      return;
+    }
+    for (var usage : new TreeMap<>(strokes.usage(StrokeKey::minZoom)).entrySet()) {
+      LOGGER.info("Road strokes from z{}: {} lines with {} points held, about {} MB", usage.getKey(),
+        usage.getValue().lines(), usage.getValue().points(), usage.getValue().estimatedBytes() >> 20);
+    }
+    strokes.build((key, id, stroke) -> {
+      var collector = featureCollectors.get(SimpleFeature.fromWorldGeometry(stroke));
+      // strokes skip the per-tile merge, so they are simplified and filtered like its output while rendering
+      var feat = collector.line(LAYER_NAME)
+        .setId(id)
+        .setMinPixelSize(0.5)
+        .setPixelTolerance(0.1)
+        .setZoomRange(key.minZoom(), STROKE_MAX_ZOOM)
+        .setSortKey(key.minZoom())
+        .setAttr(STROKE_TAG, true);
+      for (var attr : key.attrs().entrySet()) {
+        feat.setAttrWithMinzoom(attr.getKey(), attr.getValue(), key.attrMinZooms().get(attr.getKey()));
+      }
+      for (var feature : collector) {
+        emit.accept(feature);
+      }
+    });
   }
 
   private void processOsmNonHighways(SourceFeature sf, FeatureCollector features) {
@@ -520,25 +616,6 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
 
   }
 
-  /**
-   * Represents properties that can apply to a segment of a road
-   */
-  private static class OvertureSegmentProperties {
-    boolean isBridge;
-    boolean isTunnel;
-    boolean isOneway;
-    boolean isLink;
-    Integer level;
-
-    OvertureSegmentProperties() {
-      this.isBridge = false;
-      this.isTunnel = false;
-      this.isOneway = false;
-      this.isLink = false;
-      this.level = null;
-    }
-  }
-
   public void processOverture(SourceFeature sf, FeatureCollector features) {
     if ("base".equals(sf.getString("theme")) && "infrastructure".equals(sf.getString("type"))) {
       if (!"airport".equals(sf.getString("subtype")))
@@ -555,9 +632,9 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
 
       if (!sf.canBePolygon()) {
         try {
-          LineString line = (LineString) sf.latLonGeometry();
-          emitOvertureFeature(features, sf, line, kind, kindDetail, name, "aeroway", minZoom,
-            new OvertureSegmentProperties());
+          LineString line = (LineString) GeoUtils.latLonToWorldCoords(sf.latLonGeometry());
+          emitOvertureFeature(features, sf, line, kind, kindDetail, name, "aeroway", minZoom, 0,
+            OvertureLinearRefs.NO_LEVEL);
         } catch (GeometryException e) {
           /* skip */ }
       }
@@ -573,19 +650,21 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
       return;
     }
 
-    List<Map<String, Object>> kindMatches;
+    Classifier.Classification classification;
 
     String subtype = sf.getString("subtype");
     if ("road".equals(subtype)) {
-      kindMatches = overtureRoadKindsIndex.getMatches(sf);
+      classification = overtureRoadClassifier.classify(sf);
     } else if ("rail".equals(subtype)) {
-      kindMatches = overtureRailKindsIndex.getMatches(sf);
+      classification = overtureRailClassifier.classify(sf);
     } else if ("water".equals(subtype)) {
-      kindMatches = overtureWaterKindsIndex.getMatches(sf);
+      classification = overtureWaterClassifier.classify(sf);
     } else {
       return;
     }
 
+    var kindMatches = classification.kindMatches();
+
     String name = sf.getString("names.primary");
     String kind = getString(sf, kindMatches, "pm:kind", "pm:undefined");
     String kindDetail = getString(sf, kindMatches, "pm:kindDetail", "pm:undefined");
@@ -596,44 +675,33 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
     if ("pm:undefined".equals(kind))
       return;
 
-    // Calculate minZoom using zooms indexes
-    var sf2 = new Matcher.SourceFeatureWithComputedTags(
-      sf,
-      Map.of("pm:kind", kind, "pm:kindDetail", kindDetail, "pm:highway", highway)
-    );
-    var zoomMatches = highwayZoomsIndex.getMatches(sf2);
-
     // Initial minZoom
-    minZoom = getInteger(sf2, zoomMatches, "pm:minzoom", 99);
+    minZoom = getInteger(sf, classification.zoomMatches(), "pm:minzoom", 99);
 
-    // Collect all split points from all property arrays
-    List<Double> splitPoints = new ArrayList<>();
-    collectOvertureSplitPoints(sf.getTag("road_flags"), splitPoints);
-    collectOvertureSplitPoints(sf.getTag("rail_flags"), splitPoints);
-    collectOvertureSplitPoints(sf.getTag("access_restrictions"), splitPoints);
-    collectOvertureSplitPoints(sf.getTag("level_rules"), splitPoints);
+    // Decode the linearly referenced flags, restrictions and levels once
+    OvertureLinearRefs refs = OvertureLinearRefs.decode(sf);
+    int pieces = refs.pieceCount();
+    int[] pieceFlags = new int[pieces];
+    int[] pieceLevels = new int[pieces];
+    refs.resolve(pieceFlags, pieceLevels);
 
-    // Get the original geometry - use latLonGeometry for consistency with test infrastructure
+    // Get the original geometry - use latLonGeometry for consistency with test infrastructure, and project it once
     try {
-      LineString originalLine = (LineString) sf.latLonGeometry();
+      LineString worldLine = (LineString) GeoUtils.latLonToWorldCoords(sf.latLonGeometry());
 
       // If no split points, process as single feature
-      if (splitPoints.isEmpty()) {
-        emitOvertureFeature(features, sf, originalLine, kind, kindDetail, name, highway, minZoom,
-          extractOvertureSegmentProperties(sf, 0.0, 1.0));
+      if (!refs.isSplit()) {
+        emitOvertureFeature(features, sf, worldLine, kind, kindDetail, name, highway, minZoom, pieceFlags[0],
+          pieceLevels[0]);
         return;
       }
 
       // Split the line and emit features for each segment
-      List<LineString> splitGeometries = Linear.splitAtFractions(originalLine, splitPoints);
-      List<Linear.Segment> segments = Linear.createSegments(splitPoints);
-
-      for (int i = 0; i < segments.size() && i < splitGeometries.size(); i++) {
-        Linear.Segment seg = segments.get(i);
-        LineString segmentGeom = splitGeometries.get(i);
-        OvertureSegmentProperties props = extractOvertureSegmentProperties(sf, seg.start, seg.end);
+      List<LineString> splitGeometries = Linear.splitAtSortedFractions(worldLine, refs.fractions());
 
-        emitOvertureFeature(features, sf, segmentGeom, kind, kindDetail, name, highway, minZoom, props);
+      for (int i = 0; i < pieces; i++) {
+        emitOvertureFeature(features, sf, splitGeometries.get(i), kind, kindDetail, name, highway, minZoom,
+          pieceFlags[i], pieceLevels[i]);
       }
 
     } catch (GeometryException e) {
@@ -642,15 +710,11 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
   }
 
   /**
-   * Emit a road feature with given geometry and properties
+   * Emit a road feature with given geometry, in world coordinates, and properties
    */
   @java.lang.SuppressWarnings("java:S107")
-  private void emitOvertureFeature(FeatureCollector features, SourceFeature sf, LineString geometry,
-    String kind, String kindDetail, String name, String highway, int minZoom,
-    OvertureSegmentProperties props) {
-
-    // Transform geometry from lat/lon to world coordinates for rendering
-    LineString worldGeometry = (LineString) GeoUtils.latLonToWorldCoords(geometry);
+  private void emitOvertureFeature(FeatureCollector features, SourceFeature sf, LineString worldGeometry,
+    String kind, String kindDetail, String name, String highway, int minZoom, int flags, int level) {
 
     var feat = features.geometry(this.name(), worldGeometry)
       .setId(FeatureId.create(sf))
@@ -665,194 +729,64 @@ public class Roads implements ForwardingProfile.LayerPostProcessor, ForwardingPr
       .setPixelTolerance(0)
       .setZoomRange(Math.min(minZoom, 15), 15);
 
-    if (props.isOneway) {
+    if ((flags & OvertureLinearRefs.ONEWAY) != 0) {
       feat.setAttrWithMinzoom("oneway", "yes", 14);
     }
 
-    if (props.isLink) {
+    if ((flags & OvertureLinearRefs.LINK) != 0) {
       feat.setAttr("is_link", true);
     }
 
-    if (props.isBridge) {
+    if ((flags & OvertureLinearRefs.BRIDGE) != 0) {
       feat.setAttrWithMinzoom("is_bridge", true, 12);
     }
 
-    if (props.isTunnel) {
+    if ((flags & OvertureLinearRefs.TUNNEL) != 0) {
       feat.setAttrWithMinzoom("is_tunnel", true, 12);
     }
 
-    if (props.level != null) {
-      feat.setAttr("level", props.level);
+    if (level != OvertureLinearRefs.NO_LEVEL) {
+      feat.setAttr("level", level);
     }
   }
 
-  /**
-   * Collect all split points from road_flags, rail_flags, access_restrictions, and level_rules
-   */
-  @java.lang.SuppressWarnings("java:S135")
-  private void collectOvertureSplitPoints(Object segmentsObj, List<Double> splitPoints) {
-    if (!(segmentsObj instanceof List)) {
-      return;
-    }
-    @SuppressWarnings("unchecked") List<Object> segmentList = (List<Object>) segmentsObj;
-    for (Object segmentObj : segmentList) {
-      if (!(segmentObj instanceof Map)) {
-        continue;
-      }
-      @SuppressWarnings("unchecked") Map<String, Object> flag = (Map<String, Object>) segmentObj;
-      Object betweenObj = flag.get("between");
-      if (!(betweenObj instanceof List)) {
-        continue;
-      }
-      @SuppressWarnings("unchecked") List<?> between = (List<?>) betweenObj;
-      if (between.size() >= 2 && between.get(0) instanceof Number && between.get(1) instanceof Number) {
-        splitPoints.add(((Number) between.get(0)).doubleValue());
-        splitPoints.add(((Number) between.get(1)).doubleValue());
-      }
-    }
-  }
-
-  private void extractOvertureSegmentFlags(OvertureSegmentProperties props, Map<String, Object> flag, double start,
-    double end) {
-    Object valuesObj = flag.get("values");
-    Object betweenObj = flag.get("between");
-
-    // Determine the range this flag applies to
-    double rangeStart = 0.0;
-    double rangeEnd = 1.0;
-    if (betweenObj instanceof List) {
-      @SuppressWarnings("unchecked") List<?> between = (List<?>) betweenObj;
-      if (between.size() >= 2 && between.get(0) instanceof Number && between.get(1) instanceof Number) {
-        rangeStart = ((Number) between.get(0)).doubleValue();
-        rangeEnd = ((Number) between.get(1)).doubleValue();
-      }
-    }
-
-    // Check if this segment overlaps with the flag's range
-    if (Linear.overlaps(start, end, rangeStart, rangeEnd) && valuesObj instanceof List) {
-      @SuppressWarnings("unchecked") List<String> values = (List<String>) valuesObj;
-      if (values.contains("is_bridge")) {
-        props.isBridge = true;
-      }
-      if (values.contains("is_tunnel")) {
-        props.isTunnel = true;
-      }
-      if (values.contains("is_link")) {
-        props.isLink = true;
-      }
-    }
-  }
-
-  private void extractOvertureSegmentRestrictions(OvertureSegmentProperties props, Map<String, Object> restriction,
-    double start, double end) {
-    String accessType = (String) restriction.get("access_type");
-    if (!"denied".equals(accessType)) {
-      return;
-    }
-
-    Object whenObj = restriction.get("when");
-    if (whenObj instanceof Map) {
-      @SuppressWarnings("unchecked") Map<String, Object> when = (Map<String, Object>) whenObj;
-      String heading = (String) when.get("heading");
-
-      if ("backward".equals(heading)) {
-        // Determine the range this restriction applies to
-        double rangeStart = 0.0;
-        double rangeEnd = 1.0;
-        Object betweenObj = restriction.get("between");
-        if (betweenObj instanceof List) {
-          @SuppressWarnings("unchecked") List<?> between = (List<?>) betweenObj;
-          if (between.size() >= 2 && between.get(0) instanceof Number && between.get(1) instanceof Number) {
-            rangeStart = ((Number) between.get(0)).doubleValue();
-            rangeEnd = ((Number) between.get(1)).doubleValue();
-          }
-        }
-
-        if (Linear.overlaps(start, end, rangeStart, rangeEnd)) {
-          props.isOneway = true;
-        }
-      }
-    }
-  }
-
-  private void extractOvertureSegmentLevels(OvertureSegmentProperties props, Map<String, Object> rule, double start,
-    double end) {
-    Object valueObj = rule.get("value");
-    if (valueObj instanceof Number number) {
-      Integer levelValue = number.intValue();
-
-      // Determine the range this level applies to
-      double rangeStart = 0.0;
-      double rangeEnd = 1.0;
-      Object betweenObj = rule.get("between");
-      if (betweenObj instanceof List) {
-        @SuppressWarnings("unchecked") List<?> between = (List<?>) betweenObj;
-        if (between.size() >= 2 && between.get(0) instanceof Number && between.get(1) instanceof Number) {
-          rangeStart = ((Number) between.get(0)).doubleValue();
-          rangeEnd = ((Number) between.get(1)).doubleValue();
-        }
-      }
-
-      if (Linear.overlaps(start, end, rangeStart, rangeEnd)) {
-        props.level = levelValue;
-      }
-    }
-  }
-
-  /**
-   * Extract properties that apply to a segment defined by [start, end] fractional positions
-   */
-  private OvertureSegmentProperties extractOvertureSegmentProperties(SourceFeature sf, double start, double end) {
-    OvertureSegmentProperties props = new OvertureSegmentProperties();
-
-    for (String segmentsKey : List.of("road_flags", "rail_flags", "access_restrictions", "level_rules")) {
-      Object segmentsObj = sf.getTag(segmentsKey);
-      if (!(segmentsObj instanceof List)) {
-        continue;
-      }
-      @SuppressWarnings("unchecked") List<Object> segmentList = (List<Object>) segmentsObj;
-      for (Object segmentObj : segmentList) {
-        if (!(segmentObj instanceof Map)) {
-          continue;
-        }
-        if ("road_flags".equals(segmentsKey) || "rail_flags".equals(segmentsKey)) {
-          @SuppressWarnings("unchecked") Map<String, Object> flag = (Map<String, Object>) segmentObj;
-          extractOvertureSegmentFlags(props, flag, start, end);
-
-        } else if ("access_restrictions".equals(segmentsKey)) {
-          @SuppressWarnings("unchecked") Map<String, Object> restriction = (Map<String, Object>) segmentObj;
-          extractOvertureSegmentRestrictions(props, restriction, start, end);
-
-        } else if ("level_rules".equals(segmentsKey)) {
-          @SuppressWarnings("unchecked") Map<String, Object> rule = (Map<String, Object>) segmentObj;
-          extractOvertureSegmentLevels(props, rule, start, end);
-        }
-      }
-    }
-
-    return props;
-  }
+  // the main road class each class of links is simplified against
+  private static final Map<String, String> LINK_CLASSES = Map.of(
+    "motorway_link", "motorway",
+    "trunk_link", "trunk",
+    "primary_link", "primary",
+    "secondary_link", "secondary"
+  );
 
   @Override
   public List<VectorTile.Feature> postProcess(int zoom, List<VectorTile.Feature> items) throws GeometryException {
     // limit the application of LinkSimplify to where cloverleafs are unlikely to be at tile edges.
     if (zoom < 12) {
-      items = linkSimplify(items, "pm:highway", "motorway", "motorway_link");
-      items = linkSimplify(items, "pm:highway", "trunk", "trunk_link");
-      items = linkSimplify(items, "pm:highway", "primary", "primary_link");
-      items = linkSimplify(items, "pm:highway", "secondary", "secondary_link");
+      items = linkSimplify(items, "pm:highway", LINK_CLASSES);
     }
 
+    // strokes were joined for the whole input already, merging them again in every tile would only repeat that work
+    List<VectorTile.Feature> joined = new ArrayList<>();
+    List<VectorTile.Feature> unjoined = new ArrayList<>(items.size());
     for (var item : items) {
       item.tags().remove("pm:highway");
+      if (item.tags().remove(STROKE_TAG) != null) {
+        joined.add(item);
+      } else {
+        unjoined.add(item);
+      }
     }
 
-    items = FeatureMerge.mergeLineStrings(items,
+    items = FeatureMerge.mergeLineStrings(unjoined,
       0.5, // after merging, remove lines that are still less than 0.5px long
       0.1, // simplify output linestrings using a 0.1px tolerance
       4 // remove any detail more than 4px outside the tile boundary
     );
 
+    if (!joined.isEmpty()) {
+      joined.addAll(items);
+      items = joined;
+    }
     return items;
   }
 }
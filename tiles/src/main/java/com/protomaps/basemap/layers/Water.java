@@ -15,15 +15,15 @@ import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.FeatureMerge;
 import com.onthegomap.planetiler.ForwardingProfile;
 import com.onthegomap.planetiler.VectorTile;
-import com.onthegomap.planetiler.expression.MultiExpression;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.util.Parse;
+import com.protomaps.basemap.feature.FeatureContext;
 import com.protomaps.basemap.feature.FeatureId;
+import com.protomaps.basemap.feature.RuleIndex;
 import com.protomaps.basemap.names.OsmNames;
 import java.util.List;
-import java.util.Map;
 
 @SuppressWarnings("java:S1192")
 public class Water implements ForwardingProfile.LayerPostProcessor {
@@ -33,7 +33,7 @@ public class Water implements ForwardingProfile.LayerPostProcessor {
 
   public static final String LAYER_NAME = "water";
 
-  private static final MultiExpression.Index<Map<String, Object>> neIndex = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex neIndex = RuleIndex.compile("water_ne", List.of(
     rule(
       with("featurecla", "Ocean"),
       use("minZoom", fromTag("min_zoom")),
@@ -69,9 +69,9 @@ public class Water implements ForwardingProfile.LayerPostProcessor {
         """),
       use("kind", null)
     )
-  )).index();
+  ));
 
-  private static final MultiExpression.Index<Map<String, Object>> osmIndex = MultiExpression.ofOrdered(List.of(
+  private static final RuleIndex osmIndex = RuleIndex.compile("water_osm", List.of(
     rule(
       with("natural", "reef"),
       use("kind", "reef")
@@ -279,7 +279,7 @@ public class Water implements ForwardingProfile.LayerPostProcessor {
       use("kind", "ocean"),
       use("minZoom", 0)
     )
-  )).index();
+  ));
 
   @Override
   public String name() {
@@ -402,7 +402,7 @@ public class Water implements ForwardingProfile.LayerPostProcessor {
       Double wayArea = 0.0;
 
       try {
-        wayArea = sf.area() / WORLD_AREA_FOR_70K_SQUARE_METERS;
+        wayArea = FeatureContext.of(sf).area() / WORLD_AREA_FOR_70K_SQUARE_METERS;
       } catch (GeometryException e) {
         e.log("Exception in way area calculation");
       }
@@ -0,0 +1,144 @@
+package com.protomaps.basemap.names;
+
+import com.onthegomap.planetiler.reader.SourceFeature;
+import com.protomaps.basemap.feature.CountryCoder;
+import com.protomaps.basemap.feature.FeatureContext;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Decides which localized {@code name:*} attributes a feature gets, and from which zoom on.
+ * <p>
+ * Languages outside of the allow-list are never emitted. Below {@code localOnlyBelowZoom}, a feature only gets English
+ * and the languages spoken in its country, see {@link #LOCAL_LANGUAGES}. The other languages appear from
+ * {@code localOnlyBelowZoom} on. The country is only looked up for features that need it.
+ * </p>
+ */
+public final class LanguagePolicy {
+
+  /** Returned by {@link #minZoom} for names that are not emitted. */
+  public static final int NEVER = -1;
+
+  static final String ENGLISH = "name:en";
+
+  /** The countries where a language is spoken, as ISO 3166-1 alpha-2 codes. */
+  static final Map<String, String> LOCAL_LANGUAGES = Map.ofEntries(
+    Map.entry("ar", "AE BH DZ EG EH IQ JO KW LB LY MA MR OM PS QA SA SD SY TD TN YE"),
+    Map.entry("bg", "BG"),
+    Map.entry("cs", "CZ"),
+    Map.entry("da", "DK FO GL"),
+    Map.entry("de", "AT BE CH DE LI LU"),
+    Map.entry("el", "CY GR"),
+    Map.entry("es", "AR BO CL CO CR CU DO EC ES GQ GT HN MX NI PA PE PR PY SV UY VE"),
+    Map.entry("et", "EE"),
+    Map.entry("fa", "AF IR"),
+    Map.entry("fi", "FI"),
+    Map.entry("fr",
+      "BE BF BI BJ CA CD CF CG CH CI CM DJ FR GA GN HT KM LU MC MG ML NC NE PF RW SC SN TD TG VU"),
+    Map.entry("ga", "IE"),
+    Map.entry("he", "IL"),
+    Map.entry("hi", "IN"),
+    Map.entry("hr", "BA HR"),
+    Map.entry("hu", "HU"),
+    Map.entry("id", "ID"),
+    Map.entry("it", "CH IT SM VA"),
+    Map.entry("ja", "JP"),
+    Map.entry("ko", "KP KR"),
+    Map.entry("lt", "LT"),
+    Map.entry("lv", "LV"),
+    Map.entry("mr", "IN"),
+    Map.entry("mt", "MT"),
+    Map.entry("ne", "NP"),
+    Map.entry("nl", "BE NL SR"),
+    Map.entry("no", "NO"),
+    Map.entry("pl", "PL"),
+    Map.entry("pt", "AO BR CV GW MZ PT ST TL"),
+    Map.entry("ro", "MD RO"),
+    Map.entry("ru", "BY KG KZ RU"),
+    Map.entry("sk", "SK"),
+    Map.entry("sl", "SI"),
+    Map.entry("sv", "FI SE"),
+    Map.entry("tr", "CY TR"),
+    Map.entry("uk", "UA"),
+    Map.entry("ur", "IN PK"),
+    Map.entry("vi", "VN"),
+    Map.entry("zh-Hans", "CN SG"),
+    Map.entry("zh-Hant", "HK MO TW")
+  );
+
+  private static volatile LanguagePolicy current = new LanguagePolicy(OsmNames.allowedLanguages(), 0, null);
+
+  private final Set<String> allowedKeys;
+  private final int localOnlyBelowZoom;
+  private final CountryCoder countryCoder;
+  private final Map<String, Set<String>> localKeysByCountry = new HashMap<>();
+
+  /**
+   * @param languages          The languages to emit, like {@code de} or {@code zh-Hans}.
+   * @param localOnlyBelowZoom The zoom below which only English and local languages are emitted, 0 to emit all
+   *                           languages at all zooms.
+   * @param countryCoder       Finds the country of a feature, only needed if {@code localOnlyBelowZoom} is above 0.
+   */
+  public LanguagePolicy(List<String> languages, int localOnlyBelowZoom, CountryCoder countryCoder) {
+    if (localOnlyBelowZoom > 0 && countryCoder == null) {
+      throw new IllegalArgumentException("A country coder is needed to find local languages");
+    }
+    this.allowedKeys = new HashSet<>();
+    for (String language : languages) {
+      allowedKeys.add("name:" + language);
+    }
+    this.localOnlyBelowZoom = localOnlyBelowZoom;
+    this.countryCoder = countryCoder;
+    for (var entry : LOCAL_LANGUAGES.entrySet()) {
+      for (String country : entry.getValue().split(" ")) {
+        localKeysByCountry.computeIfAbsent(country, c -> new HashSet<>()).add("name:" + entry.getKey());
+      }
+    }
+  }
+
+  /** The policy used by {@link OsmNames} and {@link NeNames}, emitting all allowed languages unless changed. */
+  public static LanguagePolicy current() {
+    return current;
+  }
+
+  public static void setCurrent(LanguagePolicy policy) {
+    current = policy;
+  }
+
+  public boolean isAllowed(String nameKey) {
+    return allowedKeys.contains(nameKey);
+  }
+
+  /**
+   * Returns the zoom from which a localized name is emitted.
+   *
+   * @param nameKey The attribute, like {@code name:de}.
+   * @param sf      The feature the name belongs to.
+   * @param minZoom The zoom from which the feature's names are emitted.
+   * @return The zoom from which {@code nameKey} is emitted, or {@link #NEVER}.
+   */
+  public int minZoom(String nameKey, SourceFeature sf, int minZoom) {
+    return allowedKeys.contains(nameKey) ? localMinZoom(nameKey, sf, minZoom) : NEVER;
+  }
+
+  /** Like {@link #minZoom}, for sources with a fixed set of languages that the allow-list does not apply to. */
+  public int localMinZoom(String nameKey, SourceFeature sf, int minZoom) {
+    if (minZoom >= localOnlyBelowZoom || nameKey.equals(ENGLISH) || isLocal(nameKey, sf)) {
+      return minZoom;
+    }
+    return localOnlyBelowZoom;
+  }
+
+  private boolean isLocal(String nameKey, SourceFeature sf) {
+    Optional<String> country = FeatureContext.of(sf).countryCode(countryCoder);
+    if (country.isEmpty()) {
+      return false;
+    }
+    Set<String> localKeys = localKeysByCountry.get(country.get());
+    return localKeys != null && localKeys.contains(nameKey);
+  }
+}
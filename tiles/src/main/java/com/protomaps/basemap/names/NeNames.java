@@ -13,18 +13,21 @@ public class NeNames {
   public static FeatureCollector.Feature setNeNames(FeatureCollector.Feature feature, SourceFeature sf,
     int minZoom) {
     FontRegistry fontRegistry = FontRegistry.getInstance();
+    LanguagePolicy languagePolicy = LanguagePolicy.current();
 
     for (Map.Entry<String, Object> tag : sf.tags().entrySet()) {
       String key = tag.getKey();
       if (sf.getTag(key) == null) {
         continue;
       }
-      String value = sf.getTag(key).toString();
-      var script = Script.getScript(value);
-
       if (key.startsWith("name_")) {
         key = key.replace("_", ":");
       }
+      if (!key.equals("name") && !key.startsWith("name:")) {
+        continue;
+      }
+      String value = sf.getTag(tag.getKey()).toString();
+      var script = Script.getScript(value);
 
       if (key.equals("name")) {
         feature.setAttrWithMinzoom("name", value, minZoom);
@@ -38,11 +41,13 @@ public class NeNames {
       }
 
       if (key.startsWith("name:")) {
-        feature.setAttrWithMinzoom(key, value, minZoom);
+        // Natural Earth has its own fixed set of languages, only the zoom depends on the policy
+        int nameMinZoom = languagePolicy.localMinZoom(key, sf, minZoom);
+        feature.setAttrWithMinzoom(key, value, nameMinZoom);
 
-        if (fontRegistry.getScripts().contains(script)) {
+        if (fontRegistry.isRegistered(script)) {
           String encodedValue = TextEngine.encodeRegisteredScripts(value);
-          feature.setAttrWithMinzoom("pgf:" + key, encodedValue, minZoom);
+          feature.setAttrWithMinzoom("pgf:" + key, encodedValue, nameMinZoom);
         }
       }
     }
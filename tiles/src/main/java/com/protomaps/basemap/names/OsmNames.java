@@ -67,13 +67,18 @@ public class OsmNames {
     return ALLOWED_LANG_SET.contains(osmKey);
   }
 
+  /** The languages emitted by default, see {@link LanguagePolicy}. */
+  public static List<String> allowedLanguages() {
+    return List.of(ALLOWED_LANGS);
+  }
+
   public static FeatureCollector.Feature setOsmNames(FeatureCollector.Feature feature, SourceFeature sf,
     int minZoom) {
     FontRegistry fontRegistry = FontRegistry.getInstance();
+    LanguagePolicy languagePolicy = LanguagePolicy.current();
     for (Map.Entry<String, Object> tag : sf.tags().entrySet()) {
       var key = tag.getKey();
       String value = sf.getTag(key).toString();
-      var script = Script.getScript(value);
 
       if (key.equals("name")) {
         List<String> segments = ScriptSegmenter.segmentByScript(value);
@@ -81,7 +86,7 @@ public class OsmNames {
           int index = 0;
           feature.setAttrWithMinzoom("name", segments.get(index), minZoom);
 
-          script = Script.getScript(segments.get(index));
+          String script = Script.getScript(segments.get(index));
 
           if (!script.equals("Latin") && !script.equals("Generic")) {
             feature.setAttrWithMinzoom("script", script, minZoom);
@@ -96,7 +101,7 @@ public class OsmNames {
           int index = 1;
           feature.setAttrWithMinzoom("name2", segments.get(index), minZoom);
 
-          script = Script.getScript(segments.get(index));
+          String script = Script.getScript(segments.get(index));
 
           if (!script.equals("Latin") && !script.equals("Generic")) {
             feature.setAttrWithMinzoom("script2", script, minZoom);
@@ -111,7 +116,7 @@ public class OsmNames {
           int index = 2;
           feature.setAttrWithMinzoom("name3", segments.get(index), minZoom);
 
-          script = Script.getScript(segments.get(index));
+          String script = Script.getScript(segments.get(index));
 
           if (!script.equals("Latin") && !script.equals("Generic")) {
             feature.setAttrWithMinzoom("script3", script, minZoom);
@@ -124,13 +129,14 @@ public class OsmNames {
         }
       }
 
-      if (isAllowed(key)) {
-        feature.setAttrWithMinzoom(key, value, minZoom);
+      int nameMinZoom = key.startsWith("name:") ? languagePolicy.minZoom(key, sf, minZoom) : LanguagePolicy.NEVER;
+      if (nameMinZoom != LanguagePolicy.NEVER) {
+        feature.setAttrWithMinzoom(key, value, nameMinZoom);
 
-        if (fontRegistry.getScripts().contains(script)) {
+        if (fontRegistry.isRegistered(Script.getScript(value))) {
           String encodedValue = TextEngine.encodeRegisteredScripts(value);
           if (!encodedValue.equals(value)) {
-            feature.setAttrWithMinzoom("pgf:" + key, encodedValue, minZoom);
+            feature.setAttrWithMinzoom("pgf:" + key, encodedValue, nameMinZoom);
           }
         }
       }
@@ -139,11 +145,11 @@ public class OsmNames {
 
     // Backfill name:zh to name:zh-Hant and name:zh-Hans if those are not available
     if (sf.hasTag("name:zh")) {
-      if (!sf.hasTag("name:zh-Hant")) {
-        feature.setAttrWithMinzoom("name:zh-Hant", sf.getTag("name:zh"), minZoom);
-      }
-      if (!sf.hasTag("name:zh-Hans")) {
-        feature.setAttrWithMinzoom("name:zh-Hans", sf.getTag("name:zh"), minZoom);
+      for (String key : List.of("name:zh-Hant", "name:zh-Hans")) {
+        int nameMinZoom = languagePolicy.minZoom(key, sf, minZoom);
+        if (!sf.hasTag(key) && nameMinZoom != LanguagePolicy.NEVER) {
+          feature.setAttrWithMinzoom(key, sf.getTag("name:zh"), nameMinZoom);
+        }
       }
     }
     return feature;
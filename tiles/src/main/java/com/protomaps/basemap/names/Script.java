@@ -1,43 +1,131 @@
 package com.protomaps.basemap.names;
 
+import java.lang.Character.UnicodeScript;
+import java.util.Arrays;
 
+/**
+ * Classifies text by Unicode script.
+ * <p>
+ * Scripts are looked up in tables built once from {@link UnicodeScript#of}: a direct table for the Basic Multilingual
+ * Plane and a table of ranges for the supplementary planes. A script is identified by the ordinal of its
+ * {@link UnicodeScript}, so classifying text allocates nothing.
+ * </p>
+ */
 public class Script {
 
+  /** The id of {@code COMMON}, {@code INHERITED} and {@code UNKNOWN} codepoints, which belong to no script. */
+  public static final int NONE = -1;
+
+  public static final String GENERIC = "Generic";
+  public static final String MIXED = "Mixed";
+  public static final String MIXED_JAPANESE = "Mixed-Japanese";
+
+  private static final UnicodeScript[] SCRIPTS = UnicodeScript.values();
+  private static final String[] NAMES = new String[SCRIPTS.length];
+  private static final int HIRAGANA = UnicodeScript.HIRAGANA.ordinal();
+  private static final int KATAKANA = UnicodeScript.KATAKANA.ordinal();
+
+  // ordinal + 1 of each BMP codepoint, 0 for no script
+  private static final short[] BMP = new short[Character.MIN_SUPPLEMENTARY_CODE_POINT];
+  // first codepoint and ordinal + 1 of each run of supplementary codepoints in the same script
+  private static final int[] RANGE_STARTS;
+  private static final short[] RANGE_IDS;
+
+  static {
+    for (UnicodeScript script : SCRIPTS) {
+      String name = script.name();
+      NAMES[script.ordinal()] = name.substring(0, 1).toUpperCase() + name.substring(1).toLowerCase();
+    }
+    for (int cp = 0; cp < BMP.length; cp++) {
+      BMP[cp] = (short) (toId(UnicodeScript.of(cp)) + 1);
+    }
+    int[] starts = new int[1024];
+    short[] ids = new short[1024];
+    int count = 0;
+    short previous = -1;
+    for (int cp = Character.MIN_SUPPLEMENTARY_CODE_POINT; cp <= Character.MAX_CODE_POINT; cp++) {
+      short id = (short) (toId(UnicodeScript.of(cp)) + 1);
+      if (id != previous) {
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+          ids = Arrays.copyOf(ids, count * 2);
+        }
+        starts[count] = cp;
+        ids[count] = id;
+        count++;
+        previous = id;
+      }
+    }
+    RANGE_STARTS = Arrays.copyOf(starts, count);
+    RANGE_IDS = Arrays.copyOf(ids, count);
+  }
+
   private Script() {}
 
+  private static int toId(UnicodeScript script) {
+    return switch (script) {
+      case COMMON, INHERITED, UNKNOWN -> NONE;
+      default -> script.ordinal();
+    };
+  }
+
+  /**
+   * Returns the script of a codepoint.
+   *
+   * @param codePoint A Unicode codepoint, lone surrogates and invalid codepoints belong to no script.
+   * @return The ordinal of the codepoint's {@link UnicodeScript}, or {@link #NONE} if it is common to several scripts.
+   */
+  public static int scriptId(int codePoint) {
+    if (codePoint >= 0 && codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+      return BMP[codePoint] - 1;
+    } else if (codePoint > Character.MAX_CODE_POINT || codePoint < 0) {
+      return NONE;
+    }
+    int index = Arrays.binarySearch(RANGE_STARTS, codePoint);
+    return RANGE_IDS[index >= 0 ? index : -index - 2] - 1;
+  }
+
+  /** Returns the {@link UnicodeScript} with the id returned by {@link #scriptId}, or null for {@link #NONE}. */
+  public static UnicodeScript fromId(int id) {
+    return id == NONE ? null : SCRIPTS[id];
+  }
+
+  /** Returns the name used in tiles for a script id, like {@code Latin}, or {@link #GENERIC} for {@link #NONE}. */
+  public static String name(int id) {
+    return id == NONE ? GENERIC : NAMES[id];
+  }
+
   public static String getScript(String text) {
     if (text == null || text.isEmpty()) {
-      return "Generic";
+      return GENERIC;
     }
 
-    String overallScript = "";
+    int overallScript = NONE;
+    boolean mixed = false;
+    boolean japanese = false;
 
-    for (int i = 0; i < text.length(); ++i) {
-      String script = "" + Character.UnicodeScript.of(text.charAt(i));
-      if (script.equals("COMMON") || script.equals("UNKNOWN") || script.equals("INHERITED")) {
+    for (int i = 0; i < text.length();) {
+      int codePoint = text.codePointAt(i);
+      i += Character.charCount(codePoint);
+      int script = scriptId(codePoint);
+      if (script == NONE) {
         continue;
       }
-      if (overallScript.equals("")) {
+      japanese |= script == HIRAGANA || script == KATAKANA;
+      if (overallScript == NONE) {
         overallScript = script;
-      } else {
-        if (!script.equals(overallScript)) {
-          for (int j = 0; j < text.length(); ++j) {
-            Character.UnicodeScript unicodeScript = Character.UnicodeScript.of(text.charAt(j));
-            if (unicodeScript.equals(Character.UnicodeScript.KATAKANA) ||
-              unicodeScript.equals(Character.UnicodeScript.HIRAGANA)) {
-              return "Mixed-Japanese";
-            }
-          }
-          return "Mixed";
+      } else if (script != overallScript) {
+        mixed = true;
+        if (japanese) {
+          break;
         }
       }
     }
 
-    if (overallScript.isEmpty()) {
-      // all characters are in COMMON or UNKNOWN or INHERITED
-      return "Generic";
+    if (mixed) {
+      return japanese ? MIXED_JAPANESE : MIXED;
     }
-
-    return overallScript.substring(0, 1).toUpperCase() + overallScript.substring(1).toLowerCase();
+    // all characters are in COMMON or UNKNOWN or INHERITED if there is no overall script
+    return name(overallScript);
   }
 }
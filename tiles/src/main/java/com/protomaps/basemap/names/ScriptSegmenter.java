@@ -2,38 +2,66 @@ package com.protomaps.basemap.names;
 
 import java.lang.Character.UnicodeScript;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Splits names that combine several scripts, like {@code Quartier 7 / حارة 7}, into one segment per script.
+ * <p>
+ * Text is scanned by codepoint with {@link Script#scriptId}. Segment boundaries and scripts are kept as offsets in
+ * thread-local buffers, so the common case of a name in a single script returns the input without copying it.
+ * </p>
+ */
 public class ScriptSegmenter {
 
+  private static final int HAN = UnicodeScript.HAN.ordinal();
+  private static final int HIRAGANA = UnicodeScript.HIRAGANA.ordinal();
+  private static final int KATAKANA = UnicodeScript.KATAKANA.ordinal();
+  private static final char ZWSP = '\u200B';
+
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  /** Reusable buffers, segment {@code i} spans {@code [starts[i], ends[i])} of the input. */
+  private static final class Scratch {
+    int[] scripts = new int[8];
+    int[] starts = new int[8];
+    int[] ends = new int[8];
+    int count;
+
+    void add(int script, int start, int end) {
+      if (count == scripts.length) {
+        scripts = Arrays.copyOf(scripts, count * 2);
+        starts = Arrays.copyOf(starts, count * 2);
+        ends = Arrays.copyOf(ends, count * 2);
+      }
+      scripts[count] = script;
+      starts[count] = start;
+      ends[count] = end;
+      count++;
+    }
+
+    boolean hasScript(int script) {
+      for (int i = 0; i < count; i++) {
+        if (scripts[i] == script) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
   private ScriptSegmenter() {}
 
   public static UnicodeScript getCharScript(char ch) {
-    UnicodeScript script = Character.UnicodeScript.of(ch);
-    if (script == UnicodeScript.COMMON || script == UnicodeScript.INHERITED || script == UnicodeScript.UNKNOWN) {
-      return null;
-    }
-    return script;
+    return Script.fromId(Script.scriptId(ch));
   }
 
   public static String cleanEndsAndZWSP(String input) {
-    String result = input.strip();
-    if (result.endsWith("/") ||
-      result.endsWith("-") ||
-      result.endsWith(";") ||
-      result.endsWith("(") ||
-      result.endsWith(",")) {
-      result = result.substring(0, result.length() - 1);
-      result = result.strip();
-    }
-    if (result.endsWith(")") && !result.contains("(")) {
-      result = result.substring(0, result.length() - 1);
-      result = result.strip();
-    }
-    result = result.replace("\u200B", ""); // remove ZWSP
-    return result;
+    int start = stripStart(input, 0, input.length());
+    int end = cleanEnd(input, start, input.length());
+    return withoutZWSP(input, start, end);
   }
 
   public static boolean hasRepeatedScript(List<String> segments) {
@@ -61,104 +89,176 @@ public class ScriptSegmenter {
   }
 
   public static boolean shouldSegment(String line) {
+    return shouldSegment(line, SCRATCH.get());
+  }
+
+  private static boolean shouldSegment(String line, Scratch scripts) {
+    // trailing roman numerals like "Дугинка II" don't make a name mixed
+    int end = line.length();
+    if (endsWith(line, end, " I") ||
+      endsWith(line, end, "-I") ||
+      endsWith(line, end, " V") ||
+      endsWith(line, end, "-V")) {
+      end -= 2;
+    }
+    if (endsWith(line, end, " II") ||
+      endsWith(line, end, "-II") ||
+      endsWith(line, end, " IV") ||
+      endsWith(line, end, "-IV") ||
+      endsWith(line, end, " VI") ||
+      endsWith(line, end, "-VI")) {
+      end -= 3;
+    }
+    if (endsWith(line, end, " III") ||
+      endsWith(line, end, "-III")) {
+      end -= 4;
+    }
 
-    Set<UnicodeScript> scriptsInLine = new HashSet<>();
-
-    if (line.endsWith(" I") ||
-      line.endsWith("-I") ||
-      line.endsWith(" V") ||
-      line.endsWith("-V")) {
-      line = line.substring(0, line.length() - 2);
-    }
-    if (line.endsWith(" II") ||
-      line.endsWith("-II") ||
-      line.endsWith(" IV") ||
-      line.endsWith("-IV") ||
-      line.endsWith(" VI") ||
-      line.endsWith("-VI")) {
-      line = line.substring(0, line.length() - 3);
-    }
-    if (line.endsWith(" III") ||
-      line.endsWith("-III")) {
-      line = line.substring(0, line.length() - 4);
-    }
-    for (char ch : line.toCharArray()) {
-      UnicodeScript script = getCharScript(ch);
-      if (script != null) {
-        scriptsInLine.add(script);
+    scripts.count = 0;
+    for (int i = 0; i < end;) {
+      int codePoint = line.codePointAt(i);
+      i += Character.charCount(codePoint);
+      int script = Script.scriptId(codePoint);
+      if (script != Script.NONE && !scripts.hasScript(script)) {
+        if (scripts.count == 3) {
+          // no combination of four scripts is exempt from segmenting
+          return true;
+        }
+        scripts.add(script, 0, 0);
       }
     }
 
-    if (scriptsInLine.size() == 2 && scriptsInLine.contains(UnicodeScript.HAN)) {
-      if (scriptsInLine.contains(UnicodeScript.HIRAGANA)) {
+    if (scripts.count == 2 && scripts.hasScript(HAN)) {
+      if (scripts.hasScript(HIRAGANA)) {
         return false;
       }
-      if (scriptsInLine.contains(UnicodeScript.KATAKANA)) {
+      if (scripts.hasScript(KATAKANA)) {
         return false;
       }
     }
 
-    if (scriptsInLine.size() == 3 &&
-      scriptsInLine.contains(UnicodeScript.HAN) &&
-      scriptsInLine.contains(UnicodeScript.HIRAGANA) &&
-      scriptsInLine.contains(UnicodeScript.KATAKANA)) {
+    if (scripts.count == 3 &&
+      scripts.hasScript(HAN) &&
+      scripts.hasScript(HIRAGANA) &&
+      scripts.hasScript(KATAKANA)) {
       return false;
     }
 
-    return scriptsInLine.size() > 1;
+    return scripts.count > 1;
   }
 
   public static List<String> segmentByScript(String input) {
-    List<String> segments = new ArrayList<>();
     if (input == null || input.isEmpty()) {
-      return segments;
+      return List.of();
     }
 
-    if (!shouldSegment(input)) {
-      segments.add(input);
-      return segments;
+    Scratch scratch = SCRATCH.get();
+    if (!shouldSegment(input, scratch)) {
+      return List.of(input);
     }
 
-    StringBuilder currentSegment = new StringBuilder();
-    Character.UnicodeScript currentScript = getCharScript(input.charAt(0));
-
-    for (char ch : input.toCharArray()) {
-      Character.UnicodeScript script = getCharScript(ch);
-
-      if (currentScript == null) {
+    // split wherever a character of another script starts, characters of no script stay in the current segment
+    scratch.count = 0;
+    int segmentStart = 0;
+    int currentScript = Script.NONE;
+    for (int i = 0; i < input.length();) {
+      int codePoint = input.codePointAt(i);
+      int script = Script.scriptId(codePoint);
+      if (currentScript == Script.NONE) {
         // handles the start of the string if the first character is not
         // a defined script (UNKNOWN, INHERITED, COMMON)
         currentScript = script;
-        currentSegment.append(ch);
-      } else {
-        if (script == currentScript || script == null) {
-          currentSegment.append(ch);
-        } else {
-          if (!currentSegment.isEmpty()) {
-            String segment = cleanEndsAndZWSP(currentSegment.toString());
-            if (!segment.isEmpty()) {
-              segments.add(segment);
-            }
-          }
-          currentSegment.setLength(0); // Clear the current segment
-          currentSegment.append(ch);
-          currentScript = script;
+      } else if (script != currentScript && script != Script.NONE) {
+        addCleaned(scratch, input, currentScript, segmentStart, i);
+        segmentStart = i;
+        currentScript = script;
+      }
+      i += Character.charCount(codePoint);
+    }
+    addCleaned(scratch, input, currentScript, segmentStart, input.length());
+
+    // every kept segment has a single script, so the scripts of the segments can be compared directly
+    for (int i = 0; i < scratch.count; i++) {
+      int start = scratch.starts[i];
+      int end = scratch.ends[i];
+      if (end - start - countZWSP(input, start, end) == 1) {
+        return List.of(input);
+      }
+      for (int j = 0; j < i; j++) {
+        if (scratch.scripts[j] == scratch.scripts[i]) {
+          return List.of(input);
         }
       }
     }
 
-    if (!currentSegment.isEmpty()) {
-      String segment = cleanEndsAndZWSP(currentSegment.toString());
-      if (!segment.isEmpty()) {
-        segments.add(segment);
+    List<String> segments = new ArrayList<>(scratch.count);
+    for (int i = 0; i < scratch.count; i++) {
+      segments.add(withoutZWSP(input, scratch.starts[i], scratch.ends[i]));
+    }
+    return segments;
+  }
+
+  private static void addCleaned(Scratch scratch, String input, int script, int start, int end) {
+    start = stripStart(input, start, end);
+    end = cleanEnd(input, start, end);
+    if (end - start > countZWSP(input, start, end)) {
+      scratch.add(script, start, end);
+    }
+  }
+
+  /** Same as {@code strip} on the range, followed by dropping a dangling separator or closing parenthesis. */
+  private static int cleanEnd(String input, int start, int end) {
+    end = stripEnd(input, start, end);
+    if (end > start) {
+      char last = input.charAt(end - 1);
+      if (last == '/' || last == '-' || last == ';' || last == '(' || last == ',') {
+        end = stripEnd(input, start, end - 1);
+      }
+    }
+    if (end > start && input.charAt(end - 1) == ')' && input.lastIndexOf('(', end - 1) < start) {
+      end = stripEnd(input, start, end - 1);
+    }
+    return end;
+  }
+
+  private static int stripStart(String input, int start, int end) {
+    while (start < end) {
+      int codePoint = input.codePointAt(start);
+      if (!Character.isWhitespace(codePoint)) {
+        break;
       }
+      start += Character.charCount(codePoint);
     }
+    return start;
+  }
 
-    if (hasRepeatedScript(segments) || hasLengthOneSegment(segments)) {
-      segments = new ArrayList<>();
-      segments.add(input);
+  private static int stripEnd(String input, int start, int end) {
+    while (end > start) {
+      int codePoint = input.codePointBefore(end);
+      if (!Character.isWhitespace(codePoint)) {
+        break;
+      }
+      end -= Character.charCount(codePoint);
     }
+    return end;
+  }
 
-    return segments;
+  private static boolean endsWith(String line, int end, String suffix) {
+    return end >= suffix.length() && line.startsWith(suffix, end - suffix.length());
+  }
+
+  private static int countZWSP(String input, int start, int end) {
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      if (input.charAt(i) == ZWSP) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static String withoutZWSP(String input, int start, int end) {
+    String result = input.substring(start, end);
+    return result.indexOf(ZWSP) < 0 ? result : result.replace("\u200B", "");
   }
 }
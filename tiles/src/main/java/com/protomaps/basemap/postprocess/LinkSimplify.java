@@ -1,16 +1,22 @@
 package com.protomaps.basemap.postprocess;
 
+import com.carrotsearch.hppc.LongIntHashMap;
 import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.geo.GeometryType;
 import java.util.*;
-import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
 
 
 public class LinkSimplify {
 
   private LinkSimplify() {}
 
+  // not the key of any coordinate, those are made of two float bit patterns that are not NaN
+  private static final long EMPTY = -1L;
+
   /**
    * Post-processing to remove "hairballs" from road networks.
    * <p>
@@ -27,58 +33,108 @@ public class LinkSimplify {
    */
   public static List<VectorTile.Feature> linkSimplify(List<VectorTile.Feature> items, String key, String mainval,
     String linkval) throws GeometryException {
+    return linkSimplify(items, key, Map.of(linkval, mainval));
+  }
 
-    Map<Coordinate, Integer> degrees = new HashMap<>();
-
-    for (VectorTile.Feature item : items) {
-      if (item.geometry().geomType() == GeometryType.LINE) {
-        if (item.tags().containsKey(key) && item.tags().get(key).equals(linkval)) {
-          Coordinate[] coordinates = item.geometry().decode().getCoordinates();
-          if (coordinates.length == 0)
-            continue;
-          Coordinate start = coordinates[0];
-          Coordinate end = coordinates[coordinates.length - 1];
-          if (degrees.containsKey(start)) {
-            degrees.put(start, degrees.get(start) + 1);
-          } else {
-            degrees.put(start, 1);
-          }
-          if (degrees.containsKey(end)) {
-            degrees.put(end, degrees.get(end) + 1);
-          } else {
-            degrees.put(end, 1);
-          }
+  /**
+   * Like {@link #linkSimplify(List, String, String, String)} for several classes of links at once, decoding each line
+   * only once.
+   *
+   * @param mainvalByLinkval The value of the main roads for each value of links, like {@code motorway} for
+   *                         {@code motorway_link}. Each class of links must connect to a different class of main
+   *                         roads.
+   */
+  public static List<VectorTile.Feature> linkSimplify(List<VectorTile.Feature> items, String key,
+    Map<String, String> mainvalByLinkval) throws GeometryException {
 
-        } else if (item.tags().containsKey(key) && item.tags().get(key).equals(mainval)) {
-          Coordinate[] coordinates = item.geometry().decode().getCoordinates();
-          for (Coordinate c : coordinates) {
-            if (degrees.containsKey(c)) {
-              degrees.put(c, degrees.get(c) + 1);
-            } else {
-              degrees.put(c, 1);
-            }
-          }
-        }
-      }
+    // each class of links and main roads has its own graph
+    Map<String, Integer> linkClasses = new HashMap<>();
+    Map<String, Integer> mainClasses = new HashMap<>();
+    for (var entry : mainvalByLinkval.entrySet()) {
+      int graph = linkClasses.size();
+      linkClasses.put(entry.getKey(), graph);
+      mainClasses.put(entry.getValue(), graph);
     }
+    LongIntHashMap[] degrees = new LongIntHashMap[linkClasses.size()];
 
-    List<VectorTile.Feature> output = new ArrayList<>();
+    // the endpoints of the links, by item
+    int[] linkClassOf = new int[items.size()];
+    long[] starts = new long[items.size()];
+    long[] ends = new long[items.size()];
+    Arrays.fill(linkClassOf, -1);
+    boolean anyLinks = false;
 
-    for (VectorTile.Feature item : items) {
-      if (item.geometry().geomType() == GeometryType.LINE && item.tags().containsKey(key) &&
-        item.tags().get(key).equals(linkval)) {
-        Coordinate[] coordinates = item.geometry().decode().getCoordinates();
-        if (coordinates.length == 0)
+    for (int i = 0; i < items.size(); i++) {
+      VectorTile.Feature item = items.get(i);
+      if (item.geometry().geomType() != GeometryType.LINE || !(item.tags().get(key)instanceof String value)) {
+        continue;
+      }
+      Integer linkClass = linkClasses.get(value);
+      Integer mainClass = linkClass == null ? mainClasses.get(value) : null;
+      if (linkClass == null && mainClass == null) {
+        continue;
+      }
+      Geometry geometry = item.geometry().decode();
+
+      if (linkClass != null) {
+        linkClassOf[i] = linkClass;
+        anyLinks = true;
+        if (geometry.isEmpty()) {
+          // dropped below
+          starts[i] = ends[i] = EMPTY;
           continue;
-        Coordinate start = coordinates[0];
-        Coordinate end = coordinates[coordinates.length - 1];
-        if (degrees.get(start) >= 2 && degrees.get(end) >= 2) {
-          output.add(item);
         }
+        CoordinateSequence first = ((LineString) geometry.getGeometryN(0)).getCoordinateSequence();
+        CoordinateSequence last =
+          ((LineString) geometry.getGeometryN(geometry.getNumGeometries() - 1)).getCoordinateSequence();
+        starts[i] = key(first, 0);
+        ends[i] = key(last, last.size() - 1);
+        increment(degrees, linkClass, starts[i]);
+        increment(degrees, linkClass, ends[i]);
       } else {
-        output.add(item);
+        for (int g = 0; g < geometry.getNumGeometries(); g++) {
+          CoordinateSequence sequence = ((LineString) geometry.getGeometryN(g)).getCoordinateSequence();
+          for (int c = 0; c < sequence.size(); c++) {
+            increment(degrees, mainClass, key(sequence, c));
+          }
+        }
+      }
+    }
+
+    if (!anyLinks) {
+      return items;
+    }
+
+    List<VectorTile.Feature> output = new ArrayList<>(items.size());
+    for (int i = 0; i < items.size(); i++) {
+      int linkClass = linkClassOf[i];
+      if (linkClass < 0) {
+        output.add(items.get(i));
+      } else if (starts[i] != EMPTY && degrees[linkClass].get(starts[i]) >= 2 &&
+        degrees[linkClass].get(ends[i]) >= 2) {
+        output.add(items.get(i));
       }
     }
     return output;
   }
+
+  /**
+   * Packs a coordinate into a long, exact for the coordinates of vector tile geometries which are small multiples of a
+   * power of two and so represented exactly as floats.
+   */
+  static long key(double x, double y) {
+    // adding 0 turns -0.0 into 0.0, as coordinates compare them equal
+    return ((long) Float.floatToIntBits((float) x + 0f) << 32) | (Float.floatToIntBits((float) y + 0f) & 0xFFFFFFFFL);
+  }
+
+  private static long key(CoordinateSequence sequence, int index) {
+    return key(sequence.getX(index), sequence.getY(index));
+  }
+
+  private static void increment(LongIntHashMap[] degrees, int graph, long key) {
+    if (degrees[graph] == null) {
+      degrees[graph] = new LongIntHashMap();
+    }
+    degrees[graph].addTo(key, 1);
+  }
 }
@@ -0,0 +1,93 @@
+package com.protomaps.basemap.postprocess;
+
+import com.onthegomap.planetiler.ForwardingProfile;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.geo.GeometryType;
+import com.onthegomap.planetiler.geo.TileCoord;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Splits the localized names, {@code name:*} and {@code pgf:name:*}, from the other attributes of a tileset.
+ * <p>
+ * The base archive is written with {@link Mode#BASE} and the names archive with {@link Mode#LOCALIZED}. Planetiler
+ * writes one archive per run, so these are two runs, and they must use the same input and options. Feature IDs are not
+ * unique within a tile: features of different OSM element types may share one, merged features keep the ID of one of
+ * their parts, and some features have none. Instead, every feature with localized names gets a {@value #JOIN_KEY}
+ * attribute in both archives, its position among the features with localized names of its layer, and clients join the
+ * two archives on tile, layer and this key. The position is the same in both runs because the features of a tile are
+ * ordered deterministically and this is the last post-processing step.
+ * </p>
+ * <p>
+ * A feature of the names archive lies in the same tile as its base feature, but its geometry is only a single point,
+ * the first one of the base geometry, because vector tiles cannot encode features without a geometry.
+ * </p>
+ */
+public class NameSplit implements ForwardingProfile.TilePostProcessor {
+
+  public enum Mode {
+    /** Keep all attributes, the default. */
+    ALL,
+    /** Remove the localized names. */
+    BASE,
+    /** Keep only the localized names. */
+    LOCALIZED
+  }
+
+  public static final String JOIN_KEY = "name_key";
+
+  private final Mode mode;
+
+  public NameSplit(Mode mode) {
+    this.mode = mode;
+  }
+
+  public static boolean isLocalized(String key) {
+    return key.startsWith("name:") || key.startsWith("pgf:name:");
+  }
+
+  @Override
+  public Map<String, List<VectorTile.Feature>> postProcessTile(TileCoord tile,
+    Map<String, List<VectorTile.Feature>> layers) throws GeometryException {
+    if (mode == Mode.ALL) {
+      return layers;
+    }
+    Map<String, List<VectorTile.Feature>> result = new HashMap<>();
+    for (var layer : layers.entrySet()) {
+      List<VectorTile.Feature> features = new ArrayList<>(layer.getValue().size());
+      int joinKey = 0;
+      for (VectorTile.Feature feature : layer.getValue()) {
+        Map<String, Object> tags = feature.tags();
+        boolean localized = tags.keySet().stream().anyMatch(NameSplit::isLocalized);
+        if (mode == Mode.BASE) {
+          if (localized) {
+            tags.keySet().removeIf(NameSplit::isLocalized);
+            tags.put(JOIN_KEY, joinKey++);
+          }
+          features.add(feature);
+        } else if (localized) {
+          tags.keySet().removeIf(key -> !isLocalized(key));
+          tags.put(JOIN_KEY, joinKey++);
+          features.add(asPoint(feature));
+        }
+      }
+      if (!features.isEmpty()) {
+        result.put(layer.getKey(), features);
+      }
+    }
+    return result;
+  }
+
+  private static VectorTile.Feature asPoint(VectorTile.Feature feature) throws GeometryException {
+    if (feature.geometry().geomType() == GeometryType.POINT) {
+      return feature;
+    }
+    Geometry geometry = feature.geometry().decode();
+    return feature.copyWithNewGeometry(GeoUtils.JTS_FACTORY.createPoint(geometry.getCoordinate()));
+  }
+}
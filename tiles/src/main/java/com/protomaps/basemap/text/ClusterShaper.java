@@ -0,0 +1,182 @@
+package com.protomaps.basemap.text;
+
+import java.awt.Font;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes text one cluster at a time from a table of encoded clusters, so that the glyph layout of
+ * {@link TextEngine#encode} only runs for clusters that have not been seen before.
+ * <p>
+ * This is a memo in front of the AWT glyph layout, not a shaper of its own: every new cluster is still laid out with
+ * AWT. Bundles without a shaping table, currently all of them, start out empty.
+ * </p>
+ * <p>
+ * A cluster is a base character with its combining marks, and in Indic scripts also the consonants joined to it by a
+ * virama, like {@code क्ष}. Shaping rules apply within a cluster, so names are made of a small set of clusters that
+ * are shaped the same way wherever they appear. The table may be preloaded from a shaping table in the font bundle.
+ * Clusters learned while encoding are kept in a size-bounded LRU split into shards, like {@link EncodingCache}.
+ * </p>
+ */
+public final class ClusterShaper {
+
+  private static final int ZWNJ = 0x200C;
+  private static final int ZWJ = 0x200D;
+  // Brahmic scripts from Devanagari to Sinhala, where a virama joins consonants into one cluster
+  private static final int FIRST_BRAHMIC = 0x0900;
+  private static final int LAST_BRAHMIC = 0x0DFF;
+  private static final BitSet VIRAMAS = new BitSet();
+
+  static {
+    for (int cp = FIRST_BRAHMIC; cp <= LAST_BRAHMIC; cp++) {
+      String name = Character.getName(cp);
+      if (name != null && name.endsWith("SIGN VIRAMA")) {
+        VIRAMAS.set(cp);
+      }
+    }
+  }
+
+  public static final int DEFAULT_MAX_LEARNED = 100_000;
+  private static final int SHARDS = 16;
+
+  private final Font font;
+  private final GlyphEncoding encoding;
+  private final Map<String, String> precomputed;
+  private final Shard[] learned = new Shard[SHARDS];
+
+  /**
+   * @param font        The font to shape new clusters with.
+   * @param encoding    The encoding of the font's glyphs.
+   * @param precomputed Encoded clusters, may be empty.
+   */
+  public ClusterShaper(Font font, GlyphEncoding encoding, Map<String, String> precomputed) {
+    this(font, encoding, precomputed, DEFAULT_MAX_LEARNED);
+  }
+
+  /**
+   * @param font        The font to shape new clusters with.
+   * @param encoding    The encoding of the font's glyphs.
+   * @param precomputed Encoded clusters, may be empty.
+   * @param maxLearned  The maximum number of clusters learned while encoding that are kept in memory.
+   */
+  public ClusterShaper(Font font, GlyphEncoding encoding, Map<String, String> precomputed, int maxLearned) {
+    this.font = font;
+    this.encoding = encoding;
+    this.precomputed = Map.copyOf(precomputed);
+    int shardSize = Math.max(1, maxLearned / SHARDS);
+    for (int i = 0; i < SHARDS; i++) {
+      learned[i] = new Shard(shardSize);
+    }
+  }
+
+  private static final class Shard extends LinkedHashMap<String, String> {
+    private final int maxSize;
+
+    Shard(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  /**
+   * Reads a shaping table, with a header line followed by lines of a cluster and the codepoints it is encoded as,
+   * separated by spaces, like {@code का,63736 63743}.
+   */
+  public static Map<String, String> readTable(InputStream inputStream) throws IOException {
+    Map<String, String> table = new HashMap<>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    reader.readLine(); // skip header
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      int comma = line.indexOf(',');
+      if (comma <= 0) {
+        continue;
+      }
+      StringBuilder encoded = new StringBuilder();
+      for (String codepoint : line.substring(comma + 1).trim().split(" ")) {
+        encoded.appendCodePoint(Integer.parseInt(codepoint));
+      }
+      table.put(line.substring(0, comma), encoded.toString());
+    }
+    return table;
+  }
+
+  public String encode(String text) {
+    StringBuilder result = new StringBuilder(text.length());
+    for (int start = 0; start < text.length();) {
+      int end = clusterEnd(text, start);
+      String cluster = text.substring(start, end);
+      String encoded = precomputed.get(cluster);
+      if (encoded == null) {
+        encoded = learnedEncoding(cluster);
+      }
+      result.append(encoded);
+      start = end;
+    }
+    return result.toString();
+  }
+
+  private String learnedEncoding(String cluster) {
+    int hash = cluster.hashCode();
+    Shard shard = learned[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    String encoded;
+    synchronized (shard) {
+      encoded = shard.get(cluster);
+    }
+    if (encoded == null) {
+      encoded = TextEngine.encode(cluster, font, encoding);
+      synchronized (shard) {
+        shard.put(cluster, encoded);
+      }
+    }
+    return encoded;
+  }
+
+  /** The number of clusters that can be encoded without shaping them. */
+  public int size() {
+    int size = precomputed.size();
+    for (Shard shard : learned) {
+      synchronized (shard) {
+        size += shard.size();
+      }
+    }
+    return size;
+  }
+
+  static boolean isVirama(int codePoint) {
+    return codePoint >= FIRST_BRAHMIC && codePoint <= LAST_BRAHMIC && VIRAMAS.get(codePoint);
+  }
+
+  /** Returns the end of the cluster that starts at {@code start}. */
+  static int clusterEnd(String text, int start) {
+    int end = start + Character.charCount(text.codePointAt(start));
+    boolean afterVirama = false;
+    while (end < text.length()) {
+      int codePoint = text.codePointAt(end);
+      int type = Character.getType(codePoint);
+      if (afterVirama && Character.isLetter(codePoint)) {
+        // a conjunct like क्ष, the consonant after the virama is part of the cluster
+        afterVirama = false;
+      } else if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK ||
+        type == Character.ENCLOSING_MARK) {
+        afterVirama = isVirama(codePoint);
+      } else if (codePoint != ZWJ && codePoint != ZWNJ) {
+        // joiners control how the cluster is rendered, anything else starts the next cluster
+        break;
+      }
+      end += Character.charCount(codePoint);
+    }
+    return end;
+  }
+}
@@ -0,0 +1,328 @@
+package com.protomaps.basemap.text;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the PGF encoding of recently seen text, since the same street, river and place names are encoded over and
+ * over again and every encoding runs a full glyph layout.
+ * <p>
+ * Entries live in a size-bounded LRU split into shards, so threads encoding different names rarely wait for each
+ * other. Optionally, the entries of a previous run are read from a dictionary file with {@link #load}, which is
+ * memory-mapped and looked up without copying it to the heap, and all entries are written back with {@link #save}.
+ * </p>
+ * <p>
+ * A cache belongs to one set of font bundles, identified by a fingerprint of their names, versions and
+ * the CRCs of their encoding files. A dictionary written for other bundles is ignored.
+ * </p>
+ */
+public final class EncodingCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EncodingCache.class);
+
+  public static final int DEFAULT_MAX_SIZE = 200_000;
+
+  private static final byte[] MAGIC = "PMPGFC01".getBytes(StandardCharsets.US_ASCII);
+  private static final int SHARDS = 16;
+  // entry offsets are stored as ints
+  private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+  private final String fingerprint;
+  private final Shard[] shards = new Shard[SHARDS];
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder dictionaryHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private volatile Dictionary dictionary;
+
+  /**
+   * @param fingerprint Identifies the font bundles the encodings were made with.
+   * @param maxSize     The maximum number of entries kept in memory.
+   */
+  public EncodingCache(String fingerprint, int maxSize) {
+    this.fingerprint = fingerprint;
+    int shardSize = Math.max(1, maxSize / SHARDS);
+    for (int i = 0; i < SHARDS; i++) {
+      shards[i] = new Shard(shardSize);
+    }
+  }
+
+  private static final class Shard extends LinkedHashMap<String, String> {
+    private final int maxSize;
+
+    Shard(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Returns the encoding of {@code text}, calling {@code encoder} if it is not cached yet.
+   *
+   * @param text    The text to encode.
+   * @param encoder Encodes text that is not cached.
+   * @return The encoded text.
+   */
+  public String get(String text, UnaryOperator<String> encoder) {
+    Shard shard = shards[spread(text.hashCode()) & (SHARDS - 1)];
+    String result;
+    synchronized (shard) {
+      result = shard.get(text);
+    }
+    if (result != null) {
+      hits.increment();
+      return result;
+    }
+    Dictionary current = dictionary;
+    result = current == null ? null : current.get(text);
+    if (result != null) {
+      dictionaryHits.increment();
+    } else {
+      misses.increment();
+      result = encoder.apply(text);
+    }
+    synchronized (shard) {
+      shard.put(text, result);
+    }
+    return result;
+  }
+
+  public long hits() {
+    return hits.sum() + dictionaryHits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public void logStats() {
+    LOGGER.info("PGF encoding cache: {} hits in memory, {} hits in dictionary file, {} misses", hits.sum(),
+      dictionaryHits.sum(), misses.sum());
+  }
+
+  /*
+   * The dictionary file is an open addressing hash table:
+   *
+   * magic, fingerprint length (int), fingerprint (chars), entry count (int), slot count (int),
+   * slots (int offset of an entry from the start of the file, 0 if empty),
+   * entries (int hash of the key, int key length, key chars, int value length, value chars)
+   *
+   * Numbers are big-endian and chars are UTF-16, so keys can be compared with the String looked up directly.
+   */
+
+  /**
+   * Maps a dictionary file written by {@link #save}. Missing and corrupt files and files for other font bundles are
+   * ignored.
+   *
+   * @param path The dictionary file.
+   */
+  public void load(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      LOGGER.info("PGF encoding cache {} does not exist yet", path);
+      return;
+    }
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    byte[] magic = new byte[MAGIC.length];
+    if (buffer.limit() < MAGIC.length + 4) {
+      LOGGER.warn("Ignoring PGF encoding cache {}, it is truncated", path);
+      return;
+    }
+    buffer.get(0, magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      LOGGER.warn("Ignoring PGF encoding cache {}, it is not a cache file", path);
+      return;
+    }
+    int position = MAGIC.length;
+    int fingerprintLength = buffer.getInt(position);
+    position += 4;
+    if (fingerprintLength < 0 || position + fingerprintLength * 2L + 8 > buffer.limit()) {
+      LOGGER.warn("Ignoring PGF encoding cache {}, it is corrupt", path);
+      return;
+    }
+    if (!Dictionary.charsEqual(buffer, position, fingerprintLength, fingerprint)) {
+      LOGGER.info("Ignoring PGF encoding cache {}, it was written for other font bundles", path);
+      return;
+    }
+    position += fingerprintLength * 2;
+    int count = buffer.getInt(position);
+    int slots = buffer.getInt(position + 4);
+    // lookups stop at the first empty slot, so a table without one would never return
+    if (slots <= 0 || Integer.bitCount(slots) != 1 || count < 0 || count >= slots ||
+      position + 8 + slots * 4L > buffer.limit()) {
+      LOGGER.warn("Ignoring PGF encoding cache {}, it is corrupt", path);
+      return;
+    }
+    dictionary = new Dictionary(buffer, position + 8, slots, count);
+    LOGGER.info("Loaded {} PGF encodings from {}", count, path);
+  }
+
+  /**
+   * Writes the entries of the dictionary file loaded before and the entries in memory to {@code path}, replacing it.
+   *
+   * @param path The dictionary file.
+   */
+  public void save(Path path) throws IOException {
+    Map<String, String> entries = new LinkedHashMap<>();
+    Dictionary current = dictionary;
+    if (current != null) {
+      current.forEach(entries::put);
+    }
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        entries.putAll(shard);
+      }
+    }
+
+    List<String> keys = new ArrayList<>(entries.size());
+    long size = MAGIC.length + 4L + fingerprint.length() * 2L + 8;
+    for (var entry : entries.entrySet()) {
+      long entrySize = 12L + entry.getKey().length() * 2L + entry.getValue().length() * 2L;
+      // leave room for up to four slots per entry
+      if (size + entrySize + (keys.size() + 1) * 16L > MAX_FILE_SIZE) {
+        break;
+      }
+      keys.add(entry.getKey());
+      size += entrySize;
+    }
+
+    int slots = Integer.highestOneBit(Math.max(1, keys.size()) * 2 - 1) << 1;
+    int[] table = new int[slots];
+    long offset = MAGIC.length + 4L + fingerprint.length() * 2L + 8 + slots * 4L;
+    for (String key : keys) {
+      int slot = spread(key.hashCode()) & (slots - 1);
+      while (table[slot] != 0) {
+        slot = (slot + 1) & (slots - 1);
+      }
+      table[slot] = (int) offset;
+      offset += 12L + key.length() * 2L + entries.get(key).length() * 2L;
+    }
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.write(MAGIC);
+      out.writeInt(fingerprint.length());
+      out.writeChars(fingerprint);
+      out.writeInt(keys.size());
+      out.writeInt(slots);
+      for (int entryOffset : table) {
+        out.writeInt(entryOffset);
+      }
+      for (String key : keys) {
+        String value = entries.get(key);
+        out.writeInt(key.hashCode());
+        out.writeInt(key.length());
+        out.writeChars(key);
+        out.writeInt(value.length());
+        out.writeChars(value);
+      }
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOGGER.info("Wrote {} PGF encodings to {}", keys.size(), path);
+  }
+
+  private record Dictionary(ByteBuffer buffer, int tableStart, int slots, int count) {
+
+    // entries and lookups past a corrupt part of the file are treated as misses
+    String get(String key) {
+      int hash = key.hashCode();
+      int mask = slots - 1;
+      int slot = spread(hash) & mask;
+      for (int probe = 0; probe < slots; probe++, slot = (slot + 1) & mask) {
+        int offset = buffer.getInt(tableStart + slot * 4);
+        if (offset == 0) {
+          return null;
+        }
+        int valueOffset = valueOffset(offset);
+        if (valueOffset < 0) {
+          return null;
+        }
+        int keyLength = buffer.getInt(offset + 4);
+        if (buffer.getInt(offset) == hash && charsEqual(buffer, offset + 8, keyLength, key)) {
+          return readChars(buffer, valueOffset + 4, buffer.getInt(valueOffset));
+        }
+      }
+      return null;
+    }
+
+    void forEach(BiConsumer<String, String> consumer) {
+      int offset = tableStart + slots * 4;
+      for (int i = 0; i < count; i++) {
+        int valueOffset = valueOffset(offset);
+        if (valueOffset < 0) {
+          return;
+        }
+        String key = readChars(buffer, offset + 8, buffer.getInt(offset + 4));
+        int valueLength = buffer.getInt(valueOffset);
+        consumer.accept(key, readChars(buffer, valueOffset + 4, valueLength));
+        offset = valueOffset + 4 + valueLength * 2;
+      }
+    }
+
+    // the offset of the value length of the entry at offset, or -1 if the entry does not lie within the file
+    private int valueOffset(int offset) {
+      long entriesStart = tableStart + slots * 4L;
+      long limit = buffer.limit();
+      if (offset < entriesStart || offset + 8L > limit) {
+        return -1;
+      }
+      int keyLength = buffer.getInt(offset + 4);
+      long valueOffset = offset + 8L + keyLength * 2L;
+      if (keyLength < 0 || valueOffset + 4 > limit) {
+        return -1;
+      }
+      int valueLength = buffer.getInt((int) valueOffset);
+      if (valueLength < 0 || valueOffset + 4 + valueLength * 2L > limit) {
+        return -1;
+      }
+      return (int) valueOffset;
+    }
+
+    static boolean charsEqual(ByteBuffer buffer, int offset, int length, String string) {
+      if (length != string.length()) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (buffer.getChar(offset + i * 2) != string.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    static String readChars(ByteBuffer buffer, int offset, int length) {
+      char[] chars = new char[length];
+      for (int i = 0; i < length; i++) {
+        chars[i] = buffer.getChar(offset + i * 2);
+      }
+      return new String(chars);
+    }
+  }
+}
@@ -2,46 +2,162 @@ package com.protomaps.basemap.text;
 
 import java.awt.Font;
 import java.awt.FontFormatException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * The fonts and PGF encodings of the scripts that names are encoded for.
+ * <p>
+ * Bundles are loaded once at startup, but read for every named feature by all threads. The loaded bundles are
+ * therefore published as an immutable {@link Snapshot} that readers access without locking or copying.
+ * </p>
+ */
 public class FontRegistry {
   private static final Logger LOGGER = LoggerFactory.getLogger(FontRegistry.class);
 
-  private record FontBundle(String name, String version, Font font, Map<String, Integer> encoding) {}
+  private static final FontRegistry INSTANCE = new FontRegistry();
+
+  /**
+   * @param encodingCrc The CRC of the encoding CSV file in the archive, which changes when the encoding is rebuilt
+   *                    without a new version.
+   */
+  record FontBundle(String name, String version, long encodingCrc, Font font, GlyphEncoding encoding,
+    ClusterShaper clusterShaper) {}
+
+  /**
+   * The bundles loaded at one point in time, replaced as a whole when another bundle is loaded.
+   *
+   * @param bundles       Bundles by script name.
+   * @param scripts       The script names, sorted.
+   * @param blocks        The Unicode blocks named like the scripts, which {@link TextEngine#segment} splits by.
+   * @param encodingCache The cache of text encoded with these bundles.
+   */
+  record Snapshot(Map<String, FontBundle> bundles, List<String> scripts, Set<Character.UnicodeBlock> blocks,
+    EncodingCache encodingCache) {
+
+    static final Snapshot EMPTY =
+      new Snapshot(Map.of(), List.of(), Set.of(), new EncodingCache("", EncodingCache.DEFAULT_MAX_SIZE));
+
+    static Snapshot of(Map<String, FontBundle> bundles) {
+      List<String> scripts = bundles.keySet().stream().sorted().toList();
+      // identifies the loaded bundles, encodings cached for other bundles can't be reused
+      StringBuilder fingerprint = new StringBuilder();
+      for (String script : scripts) {
+        FontBundle bundle = bundles.get(script);
+        fingerprint.append(script).append('=').append(bundle.name).append("-v").append(bundle.version)
+          .append('@').append(Long.toHexString(bundle.encodingCrc)).append(';');
+      }
+      return new Snapshot(Map.copyOf(bundles), scripts, TextEngine.blocksOf(scripts),
+        new EncodingCache(fingerprint.toString(), EncodingCache.DEFAULT_MAX_SIZE));
+    }
+  }
+
+  /**
+   * A font bundle to load from the archive.
+   *
+   * @param name    The font name, like {@code NotoSansDevanagari-Regular}.
+   * @param version The version of the encoding.
+   * @param script  The script the font is used for, as returned by {@code Script.getScript}.
+   */
+  public record BundleSpec(String name, String version, String script) {}
+
+  private static final byte[] ENCODING_MAGIC = "PMPGFE01".getBytes(StandardCharsets.US_ASCII);
+
+  private String zipFilePath;
+  private Path encodingCacheDir;
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  private FontRegistry() {}
+
+  public static FontRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  public static String getGlyphKey(int index, int xOffset, int yOffset, int xAdvance, int yAdvance) {
+    return Integer.toString(index) + "|" +
+      Integer.toString(xOffset) + "|" +
+      Integer.toString(yOffset) + "|" +
+      Integer.toString(xAdvance) + "|" +
+      Integer.toString(yAdvance);
+  }
+
+  public synchronized void setZipFilePath(String zipFilePath_) {
+    zipFilePath = zipFilePath_;
+  }
 
-  private HashMap<String, FontBundle> registry;
-  private static String zipFilePath;
-  private static FontRegistry instance;
+  /**
+   * Keeps parsed encodings as binary files in {@code dir}, so that later runs don't parse the CSV files of the archive
+   * again. A binary file is only used while the CRC of its CSV file in the archive stays the same.
+   */
+  public synchronized void setEncodingCacheDir(Path dir) {
+    encodingCacheDir = dir;
+  }
 
-  private FontRegistry() {
-    this.registry = new HashMap<>();
+  public void loadFontBundle(String name, String version, String script) {
+    loadFontBundles(List.of(new BundleSpec(name, version, script)));
   }
 
-  public static synchronized FontRegistry getInstance() {
-    if (instance == null) {
-      instance = new FontRegistry();
+  /** Loads several bundles in parallel, opening the archive only once. */
+  public synchronized void loadFontBundles(List<BundleSpec> specs) {
+
+    if (zipFilePath == null || specs.isEmpty()) {
+      return;
+    }
+
+    Map<String, FontBundle> bundles = new HashMap<>(snapshot.bundles());
+    try (BundleArchive archive = new BundleArchive(Path.of(zipFilePath))) {
+      List<FontBundle> loaded = specs.parallelStream().map(spec -> {
+        try {
+          return archive.readBundle(spec, encodingCacheDir);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }).toList();
+      for (int i = 0; i < specs.size(); i++) {
+        bundles.put(specs.get(i).script(), loaded.get(i));
+      }
+      snapshot = Snapshot.of(bundles);
+    } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+      LOGGER.error("Error loading font bundles from {}", zipFilePath, e);
+      System.exit(1);
     }
-    return instance;
   }
 
-  private static String getTopLevelFolderName() throws IOException {
-    if (zipFilePath == null) {
-      return null;
+  /** A font bundle archive opened once to read all of its entries. */
+  private static final class BundleArchive implements AutoCloseable {
+
+    private final Path path;
+    private final ZipFile zipFile;
+    private final String topLevelFolder;
+
+    BundleArchive(Path path) throws IOException {
+      this.path = path;
+      zipFile = new ZipFile(path.toFile());
+      topLevelFolder = findTopLevelFolder(zipFile);
     }
 
-    try (ZipFile zipFile = new ZipFile(zipFilePath)) {
+    private static String findTopLevelFolder(ZipFile zipFile) {
       Enumeration<? extends ZipEntry> entries = zipFile.entries();
       while (entries.hasMoreElements()) {
         ZipEntry entry = entries.nextElement();
@@ -54,111 +170,156 @@ public class FontRegistry {
           }
         }
       }
-    }
-    return null;
-  }
-
-  private static Font readFont(String name) {
-    Font font = null;
-
-    if (zipFilePath == null) {
       return null;
     }
 
-    try (ZipFile zipFile = new ZipFile(zipFilePath)) {
-      String topLevelFolder = getTopLevelFolderName();
-      String fileNameInZip = topLevelFolder + "/fonts/" + name + ".ttf";
+    private ZipEntry entry(String fileName, boolean required) throws IOException {
+      String fileNameInZip = topLevelFolder + "/" + fileName;
       ZipEntry zipEntry = zipFile.getEntry(fileNameInZip);
+      if (zipEntry == null && required) {
+        throw new IOException("File " + fileNameInZip + " not found in the ZIP archive " + path);
+      }
+      return zipEntry;
+    }
 
-      if (zipEntry != null) {
-        try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
-          font = Font.createFont(Font.TRUETYPE_FONT, inputStream);
-        }
-      } else {
-        LOGGER.error("readFont(): File {} not found in the ZIP archive {}", fileNameInZip, zipFilePath);
-        System.exit(1);
+    FontBundle readBundle(BundleSpec spec, Path encodingCacheDir) throws IOException {
+      try {
+        // text is segmented by the Unicode block named like the script
+        Character.UnicodeBlock.forName(spec.script());
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Unknown script " + spec.script() + " for " + spec.name(), e);
       }
-    } catch (IOException | FontFormatException e) {
-      LOGGER.error("Error", e);
-      System.exit(1);
+      Font font = readFont(spec.name());
+      ZipEntry encodingEntry = entry("encoding/" + spec.name() + "-v" + spec.version() + ".csv", true);
+      GlyphEncoding encoding = readEncoding(encodingEntry, spec.name(), spec.version(), encodingCacheDir);
+      ClusterShaper clusterShaper = new ClusterShaper(font, encoding, readShapingTable(spec.name(), spec.version()));
+      return new FontBundle(spec.name(), spec.version(), encodingEntry.getCrc(), font, encoding, clusterShaper);
     }
 
-    return font;
-  }
+    private Font readFont(String name) throws IOException {
+      ZipEntry zipEntry = entry("fonts/" + name + ".ttf", true);
+      try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+        return Font.createFont(Font.TRUETYPE_FONT, inputStream);
+      } catch (FontFormatException e) {
+        throw new IOException("Invalid font " + zipEntry.getName(), e);
+      }
+    }
 
-  public static String getGlyphKey(int index, int xOffset, int yOffset, int xAdvance, int yAdvance) {
-    return Integer.toString(index) + "|" +
-      Integer.toString(xOffset) + "|" +
-      Integer.toString(yOffset) + "|" +
-      Integer.toString(xAdvance) + "|" +
-      Integer.toString(yAdvance);
-  }
+    private GlyphEncoding readEncoding(ZipEntry zipEntry, String name, String version, Path encodingCacheDir)
+      throws IOException {
+      if (encodingCacheDir == null) {
+        return readEncodingCsv(zipEntry);
+      }
 
-  private static HashMap<String, Integer> readEncoding(String name, String version) {
-    HashMap<String, Integer> encoding = new HashMap<>();
+      String zipName = path.getFileName().toString().replaceFirst("\\.zip$", "");
+      Path binary = encodingCacheDir.resolve(zipName + "-" + name + "-v" + version + ".bin");
+      if (Files.exists(binary)) {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(binary)))) {
+          byte[] magic = new byte[ENCODING_MAGIC.length];
+          in.readFully(magic);
+          if (Arrays.equals(magic, ENCODING_MAGIC) && in.readLong() == zipEntry.getCrc()) {
+            return GlyphEncoding.readFrom(in, Files.size(binary) - ENCODING_MAGIC.length - 8);
+          }
+        } catch (IOException e) {
+          LOGGER.warn("Ignoring unreadable encoding cache {}", binary, e);
+        }
+      }
 
-    if (zipFilePath == null) {
-      return new HashMap<>();
+      GlyphEncoding encoding = readEncodingCsv(zipEntry);
+      // the binary file only saves time on the next run, so a failure to write it is not fatal
+      Path tmp = binary.resolveSibling(binary.getFileName() + ".tmp");
+      try {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          out.write(ENCODING_MAGIC);
+          out.writeLong(zipEntry.getCrc());
+          encoding.writeTo(out);
+        }
+        Files.move(tmp, binary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        LOGGER.warn("Could not write encoding cache {}", binary, e);
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException ignored) {
+          // nothing else to clean up
+        }
+      }
+      return encoding;
     }
 
-    try (ZipFile zipFile = new ZipFile(zipFilePath)) {
-      String topLevelFolder = getTopLevelFolderName();
-      String fileNameInZip = topLevelFolder + "/encoding/" + name + "-v" + version + ".csv";
-      ZipEntry zipEntry = zipFile.getEntry(fileNameInZip);
-
-      if (zipEntry != null) {
-        try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
-          BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-          reader.readLine(); // skip header
-          String line = reader.readLine();
-          while (line != null) {
-            String[] parts = line.split(",");
-
-            int index = Integer.parseInt(parts[0].trim());
-            int xOffset = Integer.parseInt(parts[1].trim());
-            int yOffset = Integer.parseInt(parts[2].trim());
-            int xAdvance = Integer.parseInt(parts[3].trim());
-            int yAdvance = Integer.parseInt(parts[4].trim());
-            int codepoint = Integer.parseInt(parts[5].trim());
-
-            String key = getGlyphKey(index, xOffset, yOffset, xAdvance, yAdvance);
-            encoding.put(key, codepoint);
-            line = reader.readLine();
+    private GlyphEncoding readEncodingCsv(ZipEntry zipEntry) throws IOException {
+      GlyphEncoding encoding = new GlyphEncoding();
+      int[] fields = new int[6];
+      try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        reader.readLine(); // skip header
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          if (line.isBlank()) {
+            continue;
           }
+          // index, xOffset, yOffset, xAdvance, yAdvance, codepoint
+          parseInts(line, fields);
+          encoding.put(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
         }
-      } else {
-        LOGGER.error("readEncoding(): File {} not found in the ZIP archive {}", fileNameInZip, zipFilePath);
-        System.exit(1);
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid encoding " + zipEntry.getName(), e);
       }
-    } catch (IOException e) {
-      e.printStackTrace();
-      System.exit(1);
+      return encoding;
     }
 
-    return encoding;
-  }
+    // shaping tables are optional, clusters that are not in the table are shaped when they are first seen
+    private Map<String, String> readShapingTable(String name, String version) throws IOException {
+      ZipEntry zipEntry = entry("shaping/" + name + "-v" + version + ".csv", false);
+      if (zipEntry == null) {
+        LOGGER.info("No shaping table for {} in {}, shaping clusters on demand", name, path);
+        return Map.of();
+      }
+      try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+        return ClusterShaper.readTable(inputStream);
+      }
+    }
 
-  public synchronized void setZipFilePath(String zipFilePath_) {
-    zipFilePath = zipFilePath_;
+    @Override
+    public void close() throws IOException {
+      zipFile.close();
+    }
   }
 
-  public synchronized void loadFontBundle(String name, String version, String script) {
-
-    if (zipFilePath == null) {
-      return;
+  /** Parses comma separated integers with optional whitespace around them, without splitting the line. */
+  static void parseInts(String line, int[] fields) {
+    int start = 0;
+    for (int i = 0; i < fields.length; i++) {
+      int end = line.indexOf(',', start);
+      if (end < 0) {
+        if (i < fields.length - 1) {
+          throw new NumberFormatException("Expected " + fields.length + " fields: " + line);
+        }
+        end = line.length();
+      }
+      int from = start;
+      int to = end;
+      while (from < to && Character.isWhitespace(line.charAt(from))) {
+        from++;
+      }
+      while (to > from && Character.isWhitespace(line.charAt(to - 1))) {
+        to--;
+      }
+      fields[i] = Integer.parseInt(line, from, to, 10);
+      start = end + 1;
     }
+  }
 
-    Font font = readFont(name);
-
-    HashMap<String, Integer> encoding = readEncoding(name, version);
-
-    FontBundle fontBundle = new FontBundle(name, version, font, encoding);
+  /** The bundles loaded so far, to read several properties of the same bundles. */
+  Snapshot snapshot() {
+    return snapshot;
+  }
 
-    registry.put(script, fontBundle);
+  /** The cache of encoded text for the font bundles loaded so far. */
+  public EncodingCache getEncodingCache() {
+    return snapshot.encodingCache();
   }
 
   public String getName(String script) {
-    FontBundle fontBundle = registry.get(script);
+    FontBundle fontBundle = snapshot.bundles().get(script);
     if (fontBundle == null) {
       return null;
     }
@@ -166,7 +327,7 @@ public class FontRegistry {
   }
 
   public String getVersion(String script) {
-    FontBundle fontBundle = registry.get(script);
+    FontBundle fontBundle = snapshot.bundles().get(script);
     if (fontBundle == null) {
       return null;
     }
@@ -174,22 +335,28 @@ public class FontRegistry {
   }
 
   public Font getFont(String script) {
-    FontBundle fontBundle = registry.get(script);
+    FontBundle fontBundle = snapshot.bundles().get(script);
     if (fontBundle == null) {
       return null;
     }
     return fontBundle.font;
   }
 
-  public Map<String, Integer> getEncoding(String script) {
-    FontBundle fontBundle = registry.get(script);
+  public GlyphEncoding getEncoding(String script) {
+    FontBundle fontBundle = snapshot.bundles().get(script);
     if (fontBundle == null) {
-      return new HashMap<>();
+      return new GlyphEncoding();
     }
     return fontBundle.encoding;
   }
 
+  /** Whether a bundle is loaded for {@code script}, a name returned by {@code Script.getScript}. */
+  public boolean isRegistered(String script) {
+    return snapshot.bundles().containsKey(script);
+  }
+
+  /** The scripts with a loaded bundle, sorted. The list is immutable and shared. */
   public List<String> getScripts() {
-    return new ArrayList<>(registry.keySet());
+    return snapshot.scripts();
   }
 }
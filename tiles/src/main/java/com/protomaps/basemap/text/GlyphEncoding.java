@@ -0,0 +1,102 @@
+package com.protomaps.basemap.text;
+
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.carrotsearch.hppc.cursors.LongIntCursor;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Maps shaped glyphs to the private use codepoints of a PGF encoding.
+ * <p>
+ * A glyph is identified by its index in the font and its offsets and advances. They are packed into a single long, 16
+ * bits for the glyph index and 12 bits for each of the four signed metrics, so looking up a glyph is arithmetic and a
+ * primitive map lookup.
+ * </p>
+ */
+public final class GlyphEncoding {
+
+  /** Returned by {@link #get} for glyphs without a codepoint. */
+  public static final int MISSING = -1;
+
+  private static final int MAX_INDEX = 0xFFFF;
+  private static final int MIN_METRIC = -(1 << 11);
+  private static final int MAX_METRIC = (1 << 11) - 1;
+
+  private final LongIntHashMap codepoints = new LongIntHashMap();
+
+  static boolean fits(int index, int xOffset, int yOffset, int xAdvance, int yAdvance) {
+    return index >= 0 && index <= MAX_INDEX &&
+      fitsMetric(xOffset) && fitsMetric(yOffset) && fitsMetric(xAdvance) && fitsMetric(yAdvance);
+  }
+
+  private static boolean fitsMetric(int value) {
+    return value >= MIN_METRIC && value <= MAX_METRIC;
+  }
+
+  static long key(int index, int xOffset, int yOffset, int xAdvance, int yAdvance) {
+    return ((long) index << 48) |
+      ((long) (xOffset & 0xFFF) << 36) |
+      ((long) (yOffset & 0xFFF) << 24) |
+      ((long) (xAdvance & 0xFFF) << 12) |
+      (yAdvance & 0xFFF);
+  }
+
+  /**
+   * Adds a glyph.
+   *
+   * @throws IllegalArgumentException if the glyph index or a metric is out of range.
+   */
+  public void put(int index, int xOffset, int yOffset, int xAdvance, int yAdvance, int codepoint) {
+    if (!fits(index, xOffset, yOffset, xAdvance, yAdvance)) {
+      throw new IllegalArgumentException(
+        "Glyph out of range: " + FontRegistry.getGlyphKey(index, xOffset, yOffset, xAdvance, yAdvance));
+    }
+    codepoints.put(key(index, xOffset, yOffset, xAdvance, yAdvance), codepoint);
+  }
+
+  /**
+   * Returns the codepoint of a glyph.
+   *
+   * @return The codepoint, or {@link #MISSING} if the glyph is not part of the encoding.
+   */
+  public int get(int index, int xOffset, int yOffset, int xAdvance, int yAdvance) {
+    if (!fits(index, xOffset, yOffset, xAdvance, yAdvance)) {
+      return MISSING;
+    }
+    return codepoints.getOrDefault(key(index, xOffset, yOffset, xAdvance, yAdvance), MISSING);
+  }
+
+  public int size() {
+    return codepoints.size();
+  }
+
+  /** Writes the encoding in the format read by {@link #readFrom}. */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeInt(codepoints.size());
+    for (LongIntCursor cursor : codepoints) {
+      out.writeLong(cursor.key);
+      out.writeInt(cursor.value);
+    }
+  }
+
+  /**
+   * Reads an encoding written by {@link #writeTo}.
+   *
+   * @param in     The input, positioned at the start of the encoding.
+   * @param length The number of bytes left in the input, to reject a corrupt count before allocating for it.
+   */
+  static GlyphEncoding readFrom(DataInput in, long length) throws IOException {
+    GlyphEncoding encoding = new GlyphEncoding();
+    int count = in.readInt();
+    if (count < 0 || 4 + count * 12L != length) {
+      throw new IOException("Invalid glyph count " + count + " for " + length + " bytes");
+    }
+    encoding.codepoints.ensureCapacity(count);
+    for (int i = 0; i < count; i++) {
+      long key = in.readLong();
+      encoding.codepoints.put(key, in.readInt());
+    }
+    return encoding;
+  }
+}
@@ -5,11 +5,13 @@ import java.awt.Font;
 import java.awt.font.FontRenderContext;
 import java.awt.font.GlyphMetrics;
 import java.awt.font.GlyphVector;
+import java.lang.Character.UnicodeBlock;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,60 +21,85 @@ public class TextEngine {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(TextEngine.class);
 
-  private static Integer[][] deltas = new Integer[][]{
-    {0, 0},
-    {-1, 0},
-    {0, 1},
-    {0, -1},
-    {1, 0},
-    {-2, 0},
-    {-1, 1},
-    {-1, -1},
-    {0, 2},
-    {0, -2},
-    {1, 1},
-    {1, -1},
-    {2, 0},
-    {-3, 0},
-    {-2, 1},
-    {-2, -1},
-    {-1, 2},
-    {-1, -2},
-    {0, 3},
-    {0, -3},
-    {1, 2},
-    {1, -2},
-    {2, 1},
-    {2, -1},
-    {3, 0},
-    {-4, 0},
-    {-3, 1},
-    {-3, -1},
-    {-2, 2},
-    {-2, -2},
-    {-1, 3},
-    {-1, -3},
-    {0, 4},
-    {0, -4},
-    {1, 3},
-    {1, -3},
-    {2, 2},
-    {2, -2},
-    {3, 1},
-    {3, -1},
-    {4, 0},
+  /** How {@link #encodeRegisteredScripts} shapes text. */
+  public enum Shaping {
+    /** Lay out every text with {@link Font#layoutGlyphVector}. */
+    AWT,
+    /** Encode text cluster by cluster with {@link ClusterShaper}, only laying out clusters not seen before. */
+    CLUSTERS,
+    /** Encode with both, log differences and keep the AWT result. */
+    VERIFY
+  }
+
+  // differences found in VERIFY mode, only the first ones are logged
+  private static final AtomicLong MISMATCHES = new AtomicLong();
+  private static final long MAX_LOGGED_MISMATCHES = 100;
+
+  private static volatile Shaping shaping = Shaping.AWT;
+
+  public static void setShaping(Shaping newShaping) {
+    shaping = newShaping;
+  }
+
+  /** The number of texts that were encoded differently by the two shapers in {@link Shaping#VERIFY} mode. */
+  public static long getShapingMismatches() {
+    return MISMATCHES.get();
+  }
+
+  // offset and advance corrections to try, in this order, for glyphs whose metrics were rounded differently
+  private static final int[] DELTAS = new int[]{
+    0, 0,
+    -1, 0,
+    0, 1,
+    0, -1,
+    1, 0,
+    -2, 0,
+    -1, 1,
+    -1, -1,
+    0, 2,
+    0, -2,
+    1, 1,
+    1, -1,
+    2, 0,
+    -3, 0,
+    -2, 1,
+    -2, -1,
+    -1, 2,
+    -1, -2,
+    0, 3,
+    0, -3,
+    1, 2,
+    1, -2,
+    2, 1,
+    2, -1,
+    3, 0,
+    -4, 0,
+    -3, 1,
+    -3, -1,
+    -2, 2,
+    -2, -2,
+    -1, 3,
+    -1, -3,
+    0, 4,
+    0, -4,
+    1, 3,
+    1, -3,
+    2, 2,
+    2, -2,
+    3, 1,
+    3, -1,
+    4, 0,
   };
 
-  private static int codepointFromGlyph(Map<String, Integer> encoding, int index, int xOffset, int yOffset,
+  private static int codepointFromGlyph(GlyphEncoding encoding, int index, int xOffset, int yOffset,
     int xAdvance, int yAdvance) {
 
-    for (int i = 0; i < deltas.length; ++i) {
-      int deltaXOffset = deltas[i][0];
-      int deltaXAdvance = deltas[i][1];
-      String glyphKey =
-        FontRegistry.getGlyphKey(index, xOffset + deltaXOffset, yOffset, xAdvance + deltaXAdvance, yAdvance);
-      if (encoding.get(glyphKey) != null) {
-        return encoding.get(glyphKey);
+    for (int i = 0; i < DELTAS.length; i += 2) {
+      int deltaXOffset = DELTAS[i];
+      int deltaXAdvance = DELTAS[i + 1];
+      int codepoint = encoding.get(index, xOffset + deltaXOffset, yOffset, xAdvance + deltaXAdvance, yAdvance);
+      if (codepoint != GlyphEncoding.MISSING) {
+        return codepoint;
       }
     }
     LOGGER.error(
@@ -84,7 +111,7 @@ public class TextEngine {
     return 33;
   }
 
-  public static String encode(String text, Font font, Map<String, Integer> encoding) {
+  public static String encode(String text, Font font, GlyphEncoding encoding) {
     StringBuilder resultBld = new StringBuilder();
 
     FontRenderContext frc = new FontRenderContext(null, true, true);
@@ -111,11 +138,30 @@ public class TextEngine {
 
       sumXAdvances += xAdvance;
 
-      resultBld.append(new StringBuilder().appendCodePoint(codepoint).toString());
+      resultBld.appendCodePoint(codepoint);
     }
     return resultBld.toString();
   }
 
+  static String shape(String text, FontRegistry.FontBundle bundle) {
+    return switch (shaping) {
+      case AWT -> encode(text, bundle.font(), bundle.encoding());
+      case CLUSTERS -> bundle.clusterShaper().encode(text);
+      case VERIFY -> {
+        String expected = encode(text, bundle.font(), bundle.encoding());
+        String actual = bundle.clusterShaper().encode(text);
+        if (!expected.equals(actual) && MISMATCHES.incrementAndGet() <= MAX_LOGGED_MISMATCHES) {
+          LOGGER.warn("Cluster shaping differs from glyph layout for \"{}\"", text);
+        }
+        yield expected;
+      }
+    };
+  }
+
+  /**
+   * Splits text into runs of codepoints that are all inside or all outside of the Unicode blocks named like
+   * {@code scripts}, the same as the regular expression {@code [\p{InScript}]+|[^\p{InScript}]+}.
+   */
   public static List<String> segment(String text, List<String> scripts) {
     List<String> segments = new ArrayList<>();
 
@@ -127,37 +173,63 @@ public class TextEngine {
       return new ArrayList<>(List.of(text));
     }
 
-    StringBuilder innerBld = new StringBuilder();
-    for (String script : scripts) {
-      innerBld.append("\\p{In" + script + "}");
+    Set<UnicodeBlock> blocks = blocksOf(scripts);
+    for (int start = 0; start < text.length();) {
+      int end = segmentEnd(text, start, blocks);
+      segments.add(text.substring(start, end));
+      start = end;
     }
-    String regex = "[" + innerBld.toString() + "]+|[^" + innerBld.toString() + "]+";
 
-    Pattern pattern = Pattern.compile(regex);
-    Matcher matcher = pattern.matcher(text);
+    return segments;
+  }
 
-    while (matcher.find()) {
-      segments.add(matcher.group());
-    }
+  /** The Unicode blocks named like {@code scripts}, which must all be valid block names. */
+  static Set<UnicodeBlock> blocksOf(Collection<String> scripts) {
+    return scripts.stream().map(UnicodeBlock::forName).collect(Collectors.toUnmodifiableSet());
+  }
 
-    return segments;
+  private static boolean inBlocks(int codePoint, Set<UnicodeBlock> blocks) {
+    UnicodeBlock block = UnicodeBlock.of(codePoint);
+    return block != null && blocks.contains(block);
+  }
+
+  // the end of the segment starting at start
+  private static int segmentEnd(String text, int start, Set<UnicodeBlock> blocks) {
+    boolean inside = inBlocks(text.codePointAt(start), blocks);
+    int end = start;
+    while (end < text.length()) {
+      int codePoint = text.codePointAt(end);
+      if (inBlocks(codePoint, blocks) != inside) {
+        break;
+      }
+      end += Character.charCount(codePoint);
+    }
+    return end;
   }
 
   public static String encodeRegisteredScripts(String text) {
     if (text == null || text.isEmpty()) {
       return "";
     }
-    FontRegistry fontRegistry = FontRegistry.getInstance();
-    List<String> segments = segment(text, fontRegistry.getScripts());
+    FontRegistry.Snapshot fonts = FontRegistry.getInstance().snapshot();
+    if (fonts.blocks().isEmpty()) {
+      return text;
+    }
     StringBuilder encodedTextBld = new StringBuilder();
-    for (String segment : segments) {
-      String script = Script.getScript(segment);
-      if (fontRegistry.getScripts().contains(script)) {
-        encodedTextBld
-          .append(TextEngine.encode(segment, fontRegistry.getFont(script), fontRegistry.getEncoding(script)));
+    for (int start = 0; start < text.length();) {
+      int end = segmentEnd(text, start, fonts.blocks());
+      String segment = text.substring(start, end);
+      FontRegistry.FontBundle bundle = fonts.bundles().get(Script.getScript(segment));
+      if (bundle != null) {
+        encodedTextBld.append(fonts.encodingCache()
+          .get(segment, s -> shape(s, bundle)));
+      } else if (end - start == text.length()) {
+        // nothing to encode, the common case for names in other scripts
+        return text;
       } else {
         encodedTextBld.append(segment);
       }
+      start = end;
     }
     return encodedTextBld.toString();
   }
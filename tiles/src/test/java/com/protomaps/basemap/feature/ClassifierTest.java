@@ -0,0 +1,137 @@
+package com.protomaps.basemap.feature;
+
+import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static com.protomaps.basemap.feature.Matcher.atLeast;
+import static com.protomaps.basemap.feature.Matcher.getInteger;
+import static com.protomaps.basemap.feature.Matcher.getString;
+import static com.protomaps.basemap.feature.Matcher.rule;
+import static com.protomaps.basemap.feature.Matcher.use;
+import static com.protomaps.basemap.feature.Matcher.with;
+import static com.protomaps.basemap.feature.Matcher.withinRange;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import com.onthegomap.planetiler.reader.SourceFeature;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ClassifierTest {
+
+  private static final RuleIndex KINDS = RuleIndex.compile(List.of(
+    rule(with("place", "city", "town", "village"), use("pm:kind", "locality")),
+    rule(with("place", "suburb"), use("pm:kind", "neighbourhood"))
+  ));
+
+  private static final RuleIndex ZOOMS = RuleIndex.compile(List.of(
+    rule(use("pm:minzoom", 12)),
+    rule(with("pm:kind", "locality"), use("pm:minzoom", 10)),
+    rule(with("pm:kind", "locality"), with("place", "city"), use("pm:minzoom", 7)),
+    rule(with("pm:kind", "locality"), withinRange("pm:population", 1000, 10000), use("pm:minzoom", 9)),
+    rule(with("pm:kind", "locality"), atLeast("pm:population", 10000), use("pm:minzoom", 8)),
+    rule(with("pm:kind", "neighbourhood"), with("capital"), use("pm:minzoom", 11))
+  ));
+
+  private static final Classifier.Carry<SourceFeature> CARRY = (sf, kindMatches, tags) -> {
+    String kind = getString(sf, kindMatches, "pm:kind", "pm:undefined");
+    if ("pm:undefined".equals(kind)) {
+      return false;
+    }
+    tags.put("pm:kind", kind);
+    if (sf.hasTag("population")) {
+      tags.put("pm:population", sf.getTag("population"));
+    }
+    return true;
+  };
+
+  private static SourceFeature feature(Map<String, Object> tags) {
+    return SimpleFeature.create(newPoint(0, 0), tags, "osm", null, 0);
+  }
+
+  private static Integer minZoom(Classifier<SourceFeature> classifier, Map<String, Object> tags) {
+    var sf = feature(tags);
+    return getInteger(sf, classifier.classify(sf).zoomMatches(), "pm:minzoom", 99);
+  }
+
+  @Test
+  void testClassify() {
+    var classifier = Classifier.of(KINDS, ZOOMS, CARRY);
+    var sf = feature(Map.of("place", "city"));
+    var classification = classifier.classify(sf);
+    assertEquals("locality", getString(sf, classification.kindMatches(), "pm:kind", null));
+    assertEquals(7, getInteger(sf, classification.zoomMatches(), "pm:minzoom", 99));
+  }
+
+  @Test
+  void testSkipZoomStage() {
+    var classifier = Classifier.of(KINDS, ZOOMS, CARRY);
+    var classification = classifier.classify(feature(Map.of("place", "island")));
+    assertTrue(classification.kindMatches().isEmpty());
+    assertTrue(classification.zoomMatches().isEmpty());
+  }
+
+  @Test
+  void testCachedResultsMatchUncached() {
+    var cached = Classifier.of(KINDS, ZOOMS, CARRY);
+    var uncached = Classifier.of(KINDS, ZOOMS, CARRY, 0);
+    List<Map<String, Object>> inputs = List.of(
+      Map.of("place", "village"),
+      Map.of("place", "village", "population", "999"),
+      Map.of("place", "village", "population", "1000"),
+      Map.of("place", "village", "population", "5000"),
+      Map.of("place", "village", "population", "10000"),
+      Map.of("place", "village", "population", 20000),
+      Map.of("place", "village", "population", "unknown"),
+      Map.of("place", "village", "population", "0"),
+      Map.of("place", "city", "population", "5000"),
+      Map.of("place", "town", "population", "5000"),
+      Map.of("place", "suburb"),
+      Map.of("place", "suburb", "capital", "yes")
+    );
+    // run twice so the second round is answered from the cache
+    for (int round = 0; round < 2; round++) {
+      for (var tags : inputs) {
+        assertEquals(minZoom(uncached, tags), minZoom(cached, tags), tags.toString());
+      }
+    }
+    assertEquals(9, minZoom(cached, Map.of("place", "village", "population", "5000")));
+    assertEquals(10, minZoom(cached, Map.of("place", "village", "population", "999")));
+    assertEquals(8, minZoom(cached, Map.of("place", "village", "population", "10000")));
+    assertEquals(11, minZoom(cached, Map.of("place", "suburb", "capital", "yes")));
+  }
+
+  @Test
+  void testFullCacheEvictsAndStaysCorrect() {
+    // one entry per shard, so most lookups evict an older key
+    var cached = Classifier.of(KINDS, ZOOMS, CARRY, 1);
+    for (int round = 0; round < 3; round++) {
+      assertEquals(9, minZoom(cached, Map.of("place", "village", "population", "5000")));
+      assertEquals(10, minZoom(cached, Map.of("place", "village", "population", "999")));
+      assertEquals(8, minZoom(cached, Map.of("place", "village", "population", "10000")));
+      assertEquals(11, minZoom(cached, Map.of("place", "suburb", "capital", "yes")));
+    }
+  }
+
+  @Test
+  void testLazyTagOnlyComputedWhenRulesNeedIt() {
+    var zooms = RuleIndex.compile(List.of(
+      rule(use("pm:minzoom", 12)),
+      rule(with("place", "city"), with("pm:country", "US"), use("pm:minzoom", 5))
+    ));
+    var lookups = new AtomicInteger();
+    Classifier<SourceFeature> classifier = Classifier.of(
+      (sf, tags) -> tags.putLazy("pm:country", () -> {
+        lookups.incrementAndGet();
+        return "US";
+      }),
+      KINDS, zooms, CARRY);
+
+    assertEquals(12, minZoom(classifier, Map.of("place", "village")));
+    assertEquals(12, minZoom(classifier, Map.of("place", "town")));
+    assertEquals(0, lookups.get());
+    assertEquals(5, minZoom(classifier, Map.of("place", "city")));
+    assertEquals(1, lookups.get());
+  }
+}
@@ -1,5 +1,6 @@
 package com.protomaps.basemap.feature;
 
+import static com.onthegomap.planetiler.TestUtils.newLineString;
 import static com.onthegomap.planetiler.TestUtils.newPoint;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
@@ -7,6 +8,7 @@ import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import com.protomaps.basemap.locales.CartographicLocale;
 import com.protomaps.basemap.locales.NL;
 import com.protomaps.basemap.locales.US;
+import java.io.IOException;
 import java.util.Optional;
 import org.junit.jupiter.api.Test;
 
@@ -26,6 +28,44 @@ class CountryCoderTest {
     assertEquals(Optional.empty(), c.getCountryCode(newPoint(0.9, 0.1)));
   }
 
+  @Test
+  void testLookupByLine() {
+    CountryCoder c = CountryCoder.fromJsonString(
+      "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":{\"iso1A2\":\"GB\",\"nameEn\":\"Great Britain\"},\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[0,1],[1,1],[0,0]]]]}}]}");
+    assertEquals(Optional.of("GB"), c.getCountryCode(newLineString(0.1, 0.8, 0.2, 0.9)));
+    assertEquals(Optional.empty(), c.getCountryCode(newLineString(0.1, 0.8, 0.9, 0.1)));
+  }
+
+  @Test
+  void testLookupOnBorder() {
+    CountryCoder c = CountryCoder.fromJsonString(
+      "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":{\"iso1A2\":\"GB\",\"nameEn\":\"Great Britain\"},\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[0,1],[1,1],[0,0]]]]}},{\"type\":\"Feature\",\"properties\":{\"iso1A2\":\"FR\",\"nameEn\":\"France\"},\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[1,1],[1,0],[0,0]]]]}}]}");
+    assertEquals(Optional.of("GB"), c.getCountryCode(newPoint(0.1, 0.9)));
+    assertEquals(Optional.of("FR"), c.getCountryCode(newPoint(0.9, 0.1)));
+    assertEquals(Optional.empty(), c.getCountryCode(newPoint(0.5, 0.5)));
+  }
+
+  @Test
+  void testLookupNearBorder() {
+    CountryCoder c = CountryCoder.fromJsonString(
+      "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":{\"iso1A2\":\"GB\",\"nameEn\":\"Great Britain\"},\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[0,1],[1,1],[0,0]]]]}}]}");
+    // the cell of these points is crossed by the border, so they are tested against the polygon
+    assertEquals(Optional.of("GB"), c.getCountryCode(newPoint(0.12, 0.13)));
+    assertEquals(Optional.empty(), c.getCountryCode(newPoint(0.13, 0.12)));
+    // same cells a second time, now labelled
+    assertEquals(Optional.of("GB"), c.getCountryCode(newPoint(0.12, 0.13)));
+    assertEquals(Optional.of("GB"), c.getCountryCode(newPoint(0.1, 0.9)));
+    assertEquals(Optional.of("GB"), c.getCountryCode(newPoint(0.11, 0.91)));
+    assertEquals(Optional.empty(), c.getCountryCode(newPoint(0.9, 0.1)));
+    assertEquals(Optional.empty(), c.getCountryCode(newPoint(200, 0.1)));
+  }
+
+  @Test
+  void testFromJarResource() throws IOException {
+    CountryCoder c = CountryCoder.fromJarResource();
+    assertEquals(Optional.of("JP"), c.getCountryCode(newPoint(139.69, 35.69)));
+  }
+
   @Test
   void testNullGeometry() {
     CountryCoder c = CountryCoder.fromJsonString(
@@ -22,6 +22,7 @@ import static com.protomaps.basemap.feature.Matcher.withoutPoint;
 import static com.protomaps.basemap.feature.Matcher.withoutPolygon;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.onthegomap.planetiler.expression.Expression;
@@ -917,4 +918,41 @@ class MatcherTest {
     assertTrue(expression.evaluate(sf, List.of()));
   }
 
+  @Test
+  void testComputedTags() {
+    var sf = SimpleFeature.create(
+      newPoint(0, 0),
+      Map.of("highway", "primary", "name", "a"),
+      "osm",
+      null,
+      0
+    );
+    var tags = Matcher.ComputedTags.of(sf)
+      .put("pm:kind", "major_road")
+      .put("name", "b");
+
+    assertEquals("major_road", tags.getTag("pm:kind"));
+    assertEquals("b", tags.getString("name"));
+    assertEquals("primary", tags.getString("highway"));
+    assertTrue(tags.hasTag("pm:kind"));
+    assertFalse(tags.hasTag("pm:kindDetail"));
+    assertEquals(Map.of("highway", "primary", "name", "b", "pm:kind", "major_road"), tags.tags());
+    assertEquals(Map.of("highway", "primary", "name", "a"), sf.tags());
+
+    var index = RuleIndex.compile(List.of(
+      rule(with("pm:kind", "major_road"), with("highway", "primary"), use("minZoom", 7))
+    ));
+    assertEquals(7, getInteger(tags, index.getMatches(tags), "minZoom", 99));
+
+    tags.reset(sf);
+    assertFalse(tags.hasTag("pm:kind"));
+    assertEquals(99, getInteger(tags, index.getMatches(tags), "minZoom", 99));
+
+    // the same instance is handed out again on this thread
+    assertSame(tags, Matcher.ComputedTags.of(sf));
+    tags.putLazy("pm:country", () -> "US");
+    tags.release();
+    assertFalse(tags.isPending("pm:country"));
+  }
+
 }
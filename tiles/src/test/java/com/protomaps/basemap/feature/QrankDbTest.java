@@ -1,13 +1,21 @@
 package com.protomaps.basemap.feature;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import com.carrotsearch.hppc.LongHashSet;
 import com.carrotsearch.hppc.LongLongHashMap;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
@@ -21,6 +29,60 @@ class QrankDbTest {
     assertEquals(2, db.get("Q2"));
   }
 
+  @Test
+  void testBinary(@TempDir Path tmp) throws IOException {
+    Path cwd = Path.of("").toAbsolutePath();
+    Path pathFromRoot = Path.of("tiles", "src", "test", "resources", "qrank_fixture.csv.gz");
+    var db = QrankDb.fromCsv(cwd.resolveSibling(pathFromRoot), tmp.resolve("qrank.bin"));
+    assertEquals(1, db.get(1));
+    assertEquals(2, db.get("Q2"));
+    assertEquals(0, db.get("Q3"));
+    assertEquals(0, db.get(0));
+  }
+
+  @Test
+  void testBinaryRecreatedForNewCsv(@TempDir Path tmp) throws IOException {
+    Path csv = tmp.resolve("qrank.csv.gz");
+    Path bin = tmp.resolve("qrank.bin");
+    writeCsv(csv, "Entity,QRank\nQ5,50\nQ1,10\n");
+    Files.setLastModifiedTime(csv, FileTime.fromMillis(1_000_000));
+    assertEquals(10, QrankDb.fromCsv(csv, bin).get("Q1"));
+
+    // a new download may have the same size, but not the same modification time
+    writeCsv(csv, "Entity,QRank\nQ1,20\nQ7,70\n");
+    Files.setLastModifiedTime(csv, FileTime.fromMillis(2_000_000));
+    var db = QrankDb.fromCsv(csv, bin);
+    assertEquals(20, db.get("Q1"));
+    assertEquals(70, db.get("Q7"));
+    assertEquals(0, db.get("Q5"));
+  }
+
+  private static void writeCsv(Path path, String content) throws IOException {
+    try (var out = new GZIPOutputStream(Files.newOutputStream(path))) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  void testSortAndDeduplicate() {
+    long[] ids = {5, 3, 9, 3, 1, 7, 2, 8, 4, 6, 10, 12, 11, 15, 14, 13, 16, 20, 19, 18, 17};
+    long[] ranks = Arrays.stream(ids).map(id -> id * 10).toArray();
+    // Q3 is listed twice, the last rank wins
+    ranks[1] = 99;
+    ranks[3] = 31;
+    int size = QrankDb.sortAndDeduplicate(ids, ranks, ids.length);
+    assertEquals(20, size);
+    long[] expectedIds = new long[20];
+    long[] expectedRanks = new long[20];
+    for (int i = 0; i < 20; i++) {
+      expectedIds[i] = i + 1;
+      expectedRanks[i] = (i + 1) * 10;
+    }
+    expectedRanks[2] = 31;
+    assertArrayEquals(expectedIds, Arrays.copyOf(ids, size));
+    assertArrayEquals(expectedRanks, Arrays.copyOf(ranks, size));
+  }
+
   @Test
   void testLookup() {
     var hashMap = new LongLongHashMap();
@@ -50,6 +112,25 @@ class QrankDbTest {
     assertEquals(0, db.get("1;Q2"));
   }
 
+  @Test
+  void testRetain() {
+    var hashMap = new LongLongHashMap();
+    hashMap.put(1, 1234);
+    hashMap.put(2, 5678);
+    var db = new QrankDb(hashMap).retain(LongHashSet.from(2, 3));
+    assertEquals(0, db.get(1));
+    assertEquals(5678, db.get("Q2"));
+    assertEquals(0, db.get("Q3"));
+  }
+
+  @Test
+  void testParseId() {
+    assertEquals(42, QrankDb.parseId("Q42"));
+    assertEquals(42, QrankDb.parseId("Q42;Q43"));
+    assertEquals(0, QrankDb.parseId(""));
+    assertEquals(0, QrankDb.parseId("Qabc"));
+  }
+
   @ParameterizedTest
   @CsvSource({
     "nonsense,0,-1",
@@ -0,0 +1,155 @@
+package com.protomaps.basemap.feature;
+
+import static com.onthegomap.planetiler.TestUtils.newLineString;
+import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static com.protomaps.basemap.feature.Matcher.atLeast;
+import static com.protomaps.basemap.feature.Matcher.fromTag;
+import static com.protomaps.basemap.feature.Matcher.getInteger;
+import static com.protomaps.basemap.feature.Matcher.getString;
+import static com.protomaps.basemap.feature.Matcher.rule;
+import static com.protomaps.basemap.feature.Matcher.use;
+import static com.protomaps.basemap.feature.Matcher.with;
+import static com.protomaps.basemap.feature.Matcher.withPoint;
+import static com.protomaps.basemap.feature.Matcher.without;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.expression.Expression;
+import com.onthegomap.planetiler.expression.MultiExpression;
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.stats.Stats;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class RuleIndexTest {
+
+  private static final List<MultiExpression.Entry<Map<String, Object>>> RULES = List.of(
+    rule(with("highway"), use("kind", "other"), use("minZoom", 14)),
+    rule(with("highway", "primary", "secondary"), use("kind", "major_road"), use("minZoom", 7)),
+    rule(with("highway", "primary"), without("access", "private"), use("minZoom", 6)),
+    rule(with("highway", "service"), with("service"), use("kindDetail", fromTag("service"))),
+    rule(Expression.or(with("railway", "rail"), with("railway", "narrow_gauge")), use("kind", "rail")),
+    rule(withPoint(), use("isPoint", true)),
+    rule(atLeast("population", 1000), use("minZoom", 4)),
+    rule(with("amenity", "%cafe%"), use("kind", "cafe"))
+  );
+
+  private static SourceFeature point(Map<String, Object> tags) {
+    return SimpleFeature.create(newPoint(0, 0), tags, "osm", null, 0);
+  }
+
+  private static SourceFeature line(Map<String, Object> tags) {
+    return SimpleFeature.create(newLineString(0, 0, 1, 1), tags, "osm", null, 0);
+  }
+
+  private static void assertSameResults(SourceFeature sf) {
+    var expected = MultiExpression.ofOrdered(RULES).index().getMatches(sf);
+    var actual = RuleIndex.compile(RULES).getMatches(sf);
+    for (String key : List.of("kind", "kindDetail")) {
+      assertEquals(getString(sf, expected, key, null), getString(sf, actual, key, null), key);
+    }
+    assertEquals(getInteger(sf, expected, "minZoom", null), getInteger(sf, actual, "minZoom", null));
+    assertEquals(expected.isEmpty(), actual.isEmpty());
+  }
+
+  @Test
+  void testSameResultsAsMultiExpression() {
+    assertSameResults(line(Map.of()));
+    assertSameResults(line(Map.of("highway", "residential")));
+    assertSameResults(line(Map.of("highway", "primary")));
+    assertSameResults(line(Map.of("highway", "primary", "access", "private")));
+    assertSameResults(line(Map.of("highway", "secondary")));
+    assertSameResults(line(Map.of("highway", "service", "service", "driveway")));
+    assertSameResults(line(Map.of("highway", "service")));
+    assertSameResults(line(Map.of("railway", "narrow_gauge")));
+    assertSameResults(line(Map.of("railway", "subway")));
+    assertSameResults(point(Map.of("highway", "primary")));
+    assertSameResults(point(Map.of("population", "5000")));
+    assertSameResults(point(Map.of("population", 5000)));
+    assertSameResults(point(Map.of("amenity", "internet_cafe")));
+  }
+
+  @Test
+  void testLaterRulesWin() {
+    var index = RuleIndex.compile(RULES);
+    var sf = line(Map.of("highway", "primary"));
+    var matches = index.getMatches(sf);
+    assertEquals(1, matches.size());
+    assertEquals("major_road", getString(sf, matches, "kind", null));
+    assertEquals(6, getInteger(sf, matches, "minZoom", null));
+  }
+
+  @Test
+  void testNoMatches() {
+    var index = RuleIndex.compile(RULES);
+    assertTrue(index.getMatches(line(Map.of("building", "yes"))).isEmpty());
+  }
+
+  @Test
+  void testNonStringTagValue() {
+    var index = RuleIndex.compile(List.of(
+      rule(with("layer", "1"), use("a", "b"))
+    ));
+    var sf = line(Map.of("layer", 1));
+    assertEquals("b", getString(sf, index.getMatches(sf), "a", null));
+  }
+
+  @Test
+  void testCombinationsAreShared() {
+    var index = RuleIndex.compile(RULES);
+    var first = index.getMatches(line(Map.of("highway", "secondary", "name", "a")));
+    var second = index.getMatches(line(Map.of("highway", "secondary", "name", "b")));
+    assertSame(first, second);
+  }
+
+  @AfterEach
+  void resetProfiling() {
+    RuleIndex.resetProfiling();
+  }
+
+  @Test
+  void testProfiling() {
+    var index = RuleIndex.compile("rule_index_test", RULES);
+    RuleIndex.enableProfiling(Stats.inMemory());
+
+    var sf = line(Map.of("highway", "primary"));
+    var matches = index.getMatches(sf);
+    assertEquals("major_road", getString(sf, matches, "kind", null));
+    assertEquals(6, getInteger(sf, matches, "minZoom", null));
+    index.getMatches(line(Map.of("railway", "rail")));
+
+    // highway rules, only evaluated for the first feature
+    assertEquals(1, index.evaluations(0));
+    assertEquals(1, index.matches(0));
+    assertEquals(1, index.evaluations(1));
+    assertEquals(1, index.matches(1));
+    assertEquals(1, index.evaluations(2));
+    assertEquals(1, index.matches(2));
+    // dispatched on highway=service
+    assertEquals(0, index.evaluations(3));
+    // dispatched on railway
+    assertEquals(1, index.evaluations(4));
+    assertEquals(1, index.matches(4));
+    // not dispatched, evaluated for every feature
+    assertEquals(2, index.evaluations(5));
+    assertEquals(0, index.matches(5));
+    assertEquals(2, index.evaluations(7));
+    assertEquals(0, index.matches(7));
+
+    RuleIndex.logProfile(10);
+  }
+
+  @Test
+  void testResetProfiling() {
+    var index = RuleIndex.compile("rule_index_reset_test", RULES);
+    RuleIndex.enableProfiling(Stats.inMemory());
+    RuleIndex.resetProfiling();
+
+    index.getMatches(line(Map.of("highway", "primary")));
+    assertEquals(0, index.evaluations(0));
+  }
+}
@@ -226,4 +226,38 @@ class LinearTest {
     assertEquals(0.75, segments.get(2).start, EPSILON);
     assertEquals(1.0, segments.get(2).end, EPSILON);
   }
+
+  @Test
+  void testSplitAtSortedFractions_matchesSplitAtFractions() {
+    LineString line = createLine(0, 0, 0.25, 0.5, 0.5, 0.5, 0.75, 0.5, 1, 0);
+
+    List<LineString> expected = Linear.splitAtFractions(line, List.of(0.1, 0.4, 0.6));
+    List<LineString> result = Linear.splitAtSortedFractions(line, new double[]{0, 0.1, 0.4, 0.6, 1});
+
+    assertEquals(expected.size(), result.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(expected.get(i).equalsExact(result.get(i), EPSILON),
+        "Piece " + i + ": expected " + expected.get(i) + " but was " + result.get(i));
+    }
+  }
+
+  @Test
+  void testSplitAtSortedFractions_splitOnVertex() {
+    LineString line = createLine(0, 0, 1, 0, 1, 1);
+    List<LineString> result = Linear.splitAtSortedFractions(line, new double[]{0, 0.5, 1});
+
+    assertEquals(2, result.size());
+    assertTrue(createLine(0, 0, 1, 0).equalsExact(result.get(0), EPSILON));
+    assertTrue(createLine(1, 0, 1, 1).equalsExact(result.get(1), EPSILON));
+  }
+
+  @Test
+  void testSplitAtSortedFractions_oneLinePerPiece() {
+    LineString line = createLine(0, 0, 1, 0);
+    List<LineString> result = Linear.splitAtSortedFractions(line, new double[]{0, 0.5, 0.5, 1});
+
+    assertEquals(3, result.size());
+    assertEquals(2, result.get(1).getNumPoints());
+    assertEquals(0.0, result.get(1).getLength(), EPSILON);
+  }
 }
@@ -0,0 +1,98 @@
+package com.protomaps.basemap.geometry;
+
+import static com.onthegomap.planetiler.TestUtils.newLineString;
+import static com.onthegomap.planetiler.TestUtils.newMultiLineString;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.LineString;
+
+class StrokesTest {
+
+  private record Stroke(String key, long id, LineString line) {}
+
+  private static List<Stroke> build(Strokes<String> strokes) {
+    List<Stroke> result = new ArrayList<>();
+    strokes.build((key, id, line) -> result.add(new Stroke(key, id, line)));
+    return result;
+  }
+
+  @Test
+  void testJoinsConnectedLines() {
+    var strokes = new Strokes<String>();
+    strokes.add("a", 3, newLineString(1, 0, 2, 0));
+    strokes.add("a", 2, newLineString(0, 0, 1, 0));
+    strokes.add("a", 4, newLineString(2, 0, 3, 0));
+
+    var result = build(strokes);
+    assertEquals(1, result.size());
+    assertEquals(2, result.getFirst().id());
+    assertEquals(3, result.getFirst().line().getLength(), 1e-9);
+    assertEquals(4, result.getFirst().line().getNumPoints());
+  }
+
+  @Test
+  void testOnlyJoinsLinesWithEqualKeys() {
+    var strokes = new Strokes<String>();
+    strokes.add("a", 1, newLineString(0, 0, 1, 0));
+    strokes.add("b", 2, newLineString(1, 0, 2, 0));
+
+    var result = build(strokes);
+    assertEquals(2, result.size());
+  }
+
+  @Test
+  void testDoesNotJoinAcrossJunctions() {
+    var strokes = new Strokes<String>();
+    strokes.add("a", 1, newLineString(0, 0, 1, 0));
+    strokes.add("a", 2, newLineString(1, 0, 2, 0));
+    strokes.add("a", 3, newLineString(1, 0, 1, 1));
+
+    assertEquals(3, build(strokes).size());
+  }
+
+  @Test
+  void testAddsPartsAndForgetsAfterBuild() {
+    var strokes = new Strokes<String>();
+    strokes.add("a", 1, newMultiLineString(newLineString(0, 0, 1, 0), newLineString(5, 5, 6, 6)));
+    assertEquals(2, strokes.size());
+
+    assertEquals(2, build(strokes).size());
+    assertEquals(0, strokes.size());
+    assertTrue(build(strokes).isEmpty());
+  }
+
+  @Test
+  void testEachStrokeGetsTheSmallestIdOfItsOwnLines() {
+    var strokes = new Strokes<String>();
+    strokes.add("a", 7, newLineString(5, 0, 6, 0));
+    strokes.add("a", 1, newLineString(0, 0, 1, 0));
+    strokes.add("a", 4, newLineString(6, 0, 7, 0));
+    strokes.add("a", 2, newLineString(1, 0, 2, 0));
+
+    var result = build(strokes);
+    result.sort(Comparator.comparingLong(Stroke::id));
+    assertEquals(2, result.size());
+    assertEquals(1, result.get(0).id());
+    assertEquals(2, result.get(0).line().getLength(), 1e-9);
+    assertEquals(4, result.get(1).id());
+    assertEquals(2, result.get(1).line().getLength(), 1e-9);
+  }
+
+  @Test
+  void testJunctionSplitsIds() {
+    var strokes = new Strokes<String>();
+    strokes.add("a", 1, newLineString(0, 0, 1, 0));
+    strokes.add("a", 2, newLineString(1, 0, 2, 0));
+    strokes.add("a", 3, newLineString(1, 0, 1, 1));
+    strokes.add("a", 4, newLineString(1, 1, 1, 2));
+
+    var result = build(strokes);
+    result.sort(Comparator.comparingLong(Stroke::id));
+    assertEquals(List.of(1L, 2L, 3L), result.stream().map(Stroke::id).toList());
+    assertEquals(2, result.get(2).line().getLength(), 1e-9);
+  }
+}
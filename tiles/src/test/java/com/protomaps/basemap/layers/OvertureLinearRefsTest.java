@@ -0,0 +1,101 @@
+package com.protomaps.basemap.layers;
+
+import static com.onthegomap.planetiler.TestUtils.newLineString;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class OvertureLinearRefsTest {
+
+  private static OvertureLinearRefs decode(Map<String, Object> tags) {
+    return OvertureLinearRefs.decode(
+      SimpleFeature.create(newLineString(0, 0, 1, 1), tags, "pm:overture", null, 0));
+  }
+
+  @Test
+  void testWithoutRules() {
+    var refs = decode(Map.of());
+    assertFalse(refs.isSplit());
+    assertArrayEquals(new double[]{0, 1}, refs.fractions());
+
+    int[] flags = new int[1];
+    int[] levels = new int[1];
+    refs.resolve(flags, levels);
+    assertEquals(0, flags[0]);
+    assertEquals(OvertureLinearRefs.NO_LEVEL, levels[0]);
+  }
+
+  @Test
+  void testRuleWithoutRangeAppliesToWholeSegment() {
+    var refs = decode(Map.of(
+      "road_flags", List.of(Map.of("values", List.of("is_bridge", "is_link")))
+    ));
+    assertFalse(refs.isSplit());
+
+    int[] flags = new int[1];
+    int[] levels = new int[1];
+    refs.resolve(flags, levels);
+    assertEquals(OvertureLinearRefs.BRIDGE | OvertureLinearRefs.LINK, flags[0]);
+  }
+
+  @Test
+  void testPiecesOfOverlappingRules() {
+    var refs = decode(Map.of(
+      "road_flags", List.of(Map.of("values", List.of("is_tunnel"), "between", List.of(0.25, 0.75))),
+      "access_restrictions", List.of(
+        Map.of("access_type", "denied", "when", Map.of("heading", "backward"), "between", List.of(0.5, 1.0)),
+        Map.of("access_type", "allowed", "between", List.of(0.1, 0.2))
+      ),
+      "level_rules", List.of(
+        Map.of("value", 1, "between", List.of(0.0, 0.5)),
+        Map.of("value", 2, "between", List.of(0.25, 0.5))
+      )
+    ));
+
+    assertTrue(refs.isSplit());
+    assertArrayEquals(new double[]{0, 0.1, 0.2, 0.25, 0.5, 0.75, 1}, refs.fractions());
+
+    int[] flags = new int[refs.pieceCount()];
+    int[] levels = new int[refs.pieceCount()];
+    refs.resolve(flags, levels);
+
+    int tunnel = OvertureLinearRefs.TUNNEL;
+    int oneway = OvertureLinearRefs.ONEWAY;
+    assertArrayEquals(new int[]{0, 0, 0, tunnel, tunnel | oneway, oneway}, flags);
+    int none = OvertureLinearRefs.NO_LEVEL;
+    assertArrayEquals(new int[]{1, 1, 1, 2, none, none}, levels);
+  }
+
+  @Test
+  void testIgnoresMalformedRules() {
+    var refs = decode(Map.of(
+      "road_flags", List.of("is_bridge", Map.of("values", List.of("is_bridge"), "between", List.of(0.5))),
+      "level_rules", "1"
+    ));
+    assertFalse(refs.isSplit());
+
+    int[] flags = new int[1];
+    int[] levels = new int[1];
+    refs.resolve(flags, levels);
+    assertEquals(OvertureLinearRefs.BRIDGE, flags[0]);
+    assertEquals(OvertureLinearRefs.NO_LEVEL, levels[0]);
+  }
+
+  @Test
+  void testClampsFractionsOutsideOfTheSegment() {
+    var refs = decode(Map.of(
+      "road_flags", List.of(Map.of("values", List.of("is_bridge"), "between", List.of(-0.5, 0.5))),
+      "level_rules", List.of(Map.of("value", 1, "between", List.of(0.5, 1.5)))
+    ));
+    assertArrayEquals(new double[]{0, 0.5, 1}, refs.fractions());
+
+    int[] flags = new int[refs.pieceCount()];
+    int[] levels = new int[refs.pieceCount()];
+    refs.resolve(flags, levels);
+    assertArrayEquals(new int[]{OvertureLinearRefs.BRIDGE, 0}, flags);
+    assertArrayEquals(new int[]{OvertureLinearRefs.NO_LEVEL, 1}, levels);
+  }
+}
@@ -1444,4 +1444,19 @@ class PoisOvertureTest extends LayerTest {
       List.of(),
       process(SimpleFeature.create(newPoint(1, 1), tags, "pm:overture", null, 0)));
   }
+
+  @Test
+  void overture_minZoomFromZoomRulesWithoutQrank() {
+    // no wikidata, so QRank assigns no zoom and the point zoom rules apply: supermarkets at 14
+    var tags = new HashMap<String, Object>();
+    tags.put("id", "5b5a1b47-7e67-4c8a-9d43-4a3c6f1f2a10");
+    tags.put("theme", "places");
+    tags.put("type", "place");
+    tags.put("basic_category", "grocery_store");
+    tags.put("confidence", 0.9);
+    tags.put("names.primary", "Corner Market");
+    assertFeatures(14,
+      List.of(Map.of("kind", "supermarket", "min_zoom", 15, "name", "Corner Market")),
+      process(SimpleFeature.create(newPoint(1, 1), tags, "pm:overture", null, 0)));
+  }
 }
@@ -1,14 +1,22 @@
 package com.protomaps.basemap.layers;
 
 import static com.onthegomap.planetiler.TestUtils.newLineString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.onthegomap.planetiler.FeatureCollector;
 import com.onthegomap.planetiler.TestUtils;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SimpleFeature;
 import com.onthegomap.planetiler.reader.osm.OsmElement;
 import com.onthegomap.planetiler.reader.osm.OsmReader;
 import com.onthegomap.planetiler.reader.osm.OsmRelationInfo;
+import com.protomaps.basemap.Basemap;
+import com.protomaps.basemap.postprocess.NameSplit;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -1247,4 +1255,64 @@ class RoadsOvertureTest extends LayerTest {
       )
     ), results);
   }
+
+  @Test
+  void testStrokesJoinConnectedHighwaysBelowZoom12() {
+    var strokeProfile = new Basemap(qrankDb, countryCoder, null, "", NameSplit.Mode.ALL, true);
+    for (var way : List.of(
+      SimpleFeature.create(newLineString(0, 0, 1, 1), new HashMap<>(Map.of("highway", "motorway")), "osm", null, 5),
+      SimpleFeature.create(newLineString(1, 1, 2, 2), new HashMap<>(Map.of("highway", "motorway")), "osm", null, 3),
+      SimpleFeature.create(newLineString(5, 5, 6, 6), new HashMap<>(Map.of("highway", "motorway")), "osm", null, 9)
+    )) {
+      var collector = featureCollectorFactory.get(way);
+      strokeProfile.processFeature(way, collector);
+      // the way itself is only rendered above the stroke zooms
+      assertFeatures(12, List.of(Map.of("kind", "highway", "_minzoom", 12)), collector);
+    }
+
+    List<FeatureCollector.Feature> strokes = new ArrayList<>();
+    strokeProfile.finish("overture", featureCollectorFactory, strokes::add);
+    assertTrue(strokes.isEmpty());
+
+    strokeProfile.finish("osm", featureCollectorFactory, strokes::add);
+    strokes.sort(Comparator.comparingLong(FeatureCollector.Feature::getId));
+
+    assertEquals(2, strokes.size());
+    assertEquals(3, strokes.get(0).getId());
+    assertEquals(3, strokes.get(0).getGeometry().getNumPoints());
+    assertEquals(9, strokes.get(1).getId());
+    assertEquals(2, strokes.get(1).getGeometry().getNumPoints());
+    for (var stroke : strokes) {
+      assertEquals(Roads.STROKE_MAX_ZOOM, stroke.getMaxZoom());
+      assertEquals("highway", stroke.getAttrsAtZoom(Roads.STROKE_MAX_ZOOM).get("kind"));
+      assertEquals("motorway", stroke.getAttrsAtZoom(Roads.STROKE_MAX_ZOOM).get("kind_detail"));
+    }
+
+    // the lines are forgotten once their strokes are emitted
+    strokes.clear();
+    strokeProfile.finish("osm", featureCollectorFactory, strokes::add);
+    assertTrue(strokes.isEmpty());
+  }
+
+  @Test
+  void testPostProcessLeavesStrokesUnmerged() throws GeometryException {
+    var first = new VectorTile.Feature("roads", 1, VectorTile.encodeGeometry(newLineString(0, 0, 10, 0)),
+      new HashMap<>(Map.of("kind", "highway", "pm:highway", "motorway", "pm:stroke", true)));
+    var second = new VectorTile.Feature("roads", 2, VectorTile.encodeGeometry(newLineString(10, 0, 20, 0)),
+      new HashMap<>(Map.of("kind", "highway", "pm:highway", "motorway", "pm:stroke", true)));
+    var third = new VectorTile.Feature("roads", 3, VectorTile.encodeGeometry(newLineString(0, 10, 10, 10)),
+      new HashMap<>(Map.of("kind", "rail")));
+    var fourth = new VectorTile.Feature("roads", 4, VectorTile.encodeGeometry(newLineString(10, 10, 20, 10)),
+      new HashMap<>(Map.of("kind", "rail")));
+
+    var result = new Roads(countryCoder, true).postProcess(8, List.of(first, second, third, fourth));
+
+    // the strokes are kept as they are, the other lines are still merged
+    assertEquals(3, result.size());
+    assertEquals(List.of(1L, 2L), result.subList(0, 2).stream().map(VectorTile.Feature::id).toList());
+    for (var feature : result) {
+      assertFalse(feature.tags().containsKey("pm:stroke"));
+      assertFalse(feature.tags().containsKey("pm:highway"));
+    }
+  }
 }
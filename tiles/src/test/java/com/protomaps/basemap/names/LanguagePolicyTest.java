@@ -0,0 +1,62 @@
+package com.protomaps.basemap.names;
+
+import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import com.onthegomap.planetiler.reader.SourceFeature;
+import com.protomaps.basemap.feature.CountryCoder;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class LanguagePolicyTest {
+
+  private static final CountryCoder COUNTRY_CODER = CountryCoder.fromJsonString(
+    "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":{\"iso1A2\":\"FR\",\"nameEn\":\"France\"},\"geometry\":{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[0,1],[1,1],[0,0]]]]}}]}");
+
+  private static SourceFeature feature(double x, double y) {
+    return SimpleFeature.create(newPoint(x, y), new HashMap<>(), "osm", null, 0);
+  }
+
+  @Test
+  void testDefaultEmitsAllowedLanguagesAtAllZooms() {
+    var policy = new LanguagePolicy(OsmNames.allowedLanguages(), 0, null);
+    var sf = feature(0.1, 0.9);
+    assertEquals(3, policy.minZoom("name:de", sf, 3));
+    assertEquals(3, policy.minZoom("name:zh-Hans", sf, 3));
+    assertEquals(LanguagePolicy.NEVER, policy.minZoom("name:zh", sf, 3));
+    assertEquals(LanguagePolicy.NEVER, policy.minZoom("name:dk", sf, 3));
+  }
+
+  @Test
+  void testConfiguredLanguages() {
+    var policy = new LanguagePolicy(List.of("en", "de"), 0, null);
+    assertTrue(policy.isAllowed("name:de"));
+    assertFalse(policy.isAllowed("name:fr"));
+    assertEquals(LanguagePolicy.NEVER, policy.minZoom("name:fr", feature(0.1, 0.9), 3));
+  }
+
+  @Test
+  void testLocalLanguagesOnlyAtLowZooms() {
+    var policy = new LanguagePolicy(OsmNames.allowedLanguages(), 8, COUNTRY_CODER);
+    var inFrance = feature(0.1, 0.9);
+    assertEquals(3, policy.minZoom("name:fr", inFrance, 3));
+    assertEquals(3, policy.minZoom("name:en", inFrance, 3));
+    assertEquals(8, policy.minZoom("name:de", inFrance, 3));
+    assertEquals(10, policy.minZoom("name:de", inFrance, 10));
+
+    var outside = feature(0.9, 0.1);
+    assertEquals(8, policy.minZoom("name:fr", outside, 3));
+    assertEquals(3, policy.minZoom("name:en", outside, 3));
+  }
+
+  @Test
+  void testLocalMinZoomIgnoresAllowList() {
+    var policy = new LanguagePolicy(List.of("en"), 8, COUNTRY_CODER);
+    assertEquals(3, policy.localMinZoom("name:fr", feature(0.1, 0.9), 3));
+    assertEquals(8, policy.localMinZoom("name:zh", feature(0.1, 0.9), 3));
+  }
+}
@@ -1,6 +1,7 @@
 package com.protomaps.basemap.names;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import java.util.Arrays;
 import org.junit.jupiter.api.Test;
@@ -127,4 +128,28 @@ class ScriptSegmenterTest {
     assertEquals("الدار البيضاء", ScriptSegmenter.segmentByScript("Casablanca ⴰⵏⴼⴰ الدار البيضاء").get(2));
 
   }
+
+  @Test
+  void segmentByScriptSingleScript() {
+    String name = "Zürich";
+    assertSame(name, ScriptSegmenter.segmentByScript(name).get(0));
+    assertEquals(0, ScriptSegmenter.segmentByScript("").size());
+  }
+
+  @Test
+  void segmentByScriptSupplementaryPlanes() {
+    // U+20000 and U+20001 are CJK ideographs, encoded as surrogate pairs
+    var segments = ScriptSegmenter.segmentByScript("Berlin \uD840\uDC00\uD840\uDC01");
+    assertEquals(2, segments.size());
+    assertEquals("Berlin", segments.get(0));
+    assertEquals("\uD840\uDC00\uD840\uDC01", segments.get(1));
+  }
+
+  @Test
+  void segmentByScriptRemovesZWSP() {
+    var segments = ScriptSegmenter.segmentByScript("Quar\u200Btier / حا\u200Bرة");
+    assertEquals(2, segments.size());
+    assertEquals("Quartier", segments.get(0));
+    assertEquals("حارة", segments.get(1));
+  }
 }
@@ -1,6 +1,7 @@
 package com.protomaps.basemap.names;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -114,4 +115,32 @@ class ScriptTest {
   void mixedJapanese() {
     assertEquals("Mixed-Japanese", Script.getScript("つつじケ丘五丁目"));
   }
+
+  @Test
+  void supplementaryPlanes() {
+    // U+20000 and U+20001 are CJK ideographs, encoded as surrogate pairs
+    assertEquals("Han", Script.getScript("\uD840\uDC00\uD840\uDC01"));
+    assertEquals("Mixed", Script.getScript("Berlin \uD840\uDC00"));
+    assertEquals(Character.UnicodeScript.HAN.ordinal(), Script.scriptId(0x20000));
+  }
+
+  @Test
+  void loneSurrogate() {
+    assertEquals("Latin", Script.getScript("Berlin\uD840"));
+    assertEquals(Script.NONE, Script.scriptId(0xD840));
+  }
+
+  @Test
+  void scriptIdsMatchUnicodeScript() {
+    for (int cp = 0; cp <= Character.MAX_CODE_POINT; cp++) {
+      var expected = Character.UnicodeScript.of(cp);
+      var actual = Script.fromId(Script.scriptId(cp));
+      if (actual == null) {
+        assertTrue(expected == Character.UnicodeScript.COMMON ||
+          expected == Character.UnicodeScript.INHERITED || expected == Character.UnicodeScript.UNKNOWN);
+      } else {
+        assertEquals(expected, actual);
+      }
+    }
+  }
 }
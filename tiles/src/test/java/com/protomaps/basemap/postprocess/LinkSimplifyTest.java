@@ -2,6 +2,7 @@ package com.protomaps.basemap.postprocess;
 
 import static com.onthegomap.planetiler.TestUtils.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 import com.onthegomap.planetiler.VectorTile;
 import com.onthegomap.planetiler.geo.GeometryException;
@@ -112,5 +113,42 @@ class LinkSimplifyTest {
     assertEquals(5, result.size());
   }
 
+  @Test
+  void testSeveralClassesInOnePass() throws GeometryException {
+    List<VectorTile.Feature> items = new ArrayList<>();
 
+    items.add(new VectorTile.Feature("mylayer", 1,
+      VectorTile.encodeGeometry(newLineString(0, 0, 10, 0, 20, 0)),
+      Map.of("highway", "tag1")
+    ));
+    // connects two tag1 vertices, kept
+    items.add(new VectorTile.Feature("mylayer", 1,
+      VectorTile.encodeGeometry(newLineString(0, 0, 5, 5, 10, 0)),
+      Map.of("highway", "tag1_link")
+    ));
+    // connects tag1, but links are only checked against their own class, dropped
+    items.add(new VectorTile.Feature("mylayer", 1,
+      VectorTile.encodeGeometry(newLineString(10, 0, 20, 0)),
+      Map.of("highway", "tag2_link")
+    ));
+    items.add(new VectorTile.Feature("mylayer", 1,
+      VectorTile.encodeGeometry(newLineString(0, 20, 20, 20)),
+      Map.of("highway", "tag2")
+    ));
+    // offramp of tag2, dropped
+    items.add(new VectorTile.Feature("mylayer", 1,
+      VectorTile.encodeGeometry(newLineString(20, 20, 30, 30)),
+      Map.of("highway", "tag2_link")
+    ));
+
+    var result = LinkSimplify.linkSimplify(items, "highway", Map.of("tag1_link", "tag1", "tag2_link", "tag2"));
+    assertEquals(List.of(items.get(0), items.get(1), items.get(3)), result);
+  }
+
+  @Test
+  void testKeyTreatsNegativeZeroAsZero() {
+    assertEquals(LinkSimplify.key(0.0, 1.5), LinkSimplify.key(-0.0, 1.5));
+    assertNotEquals(LinkSimplify.key(0.0, 1.5), LinkSimplify.key(1.5, 0.0));
+    assertNotEquals(LinkSimplify.key(1.0, 1.0), LinkSimplify.key(1.0625, 1.0));
+  }
 }
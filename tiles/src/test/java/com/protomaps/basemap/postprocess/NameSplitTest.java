@@ -0,0 +1,126 @@
+package com.protomaps.basemap.postprocess;
+
+import static com.onthegomap.planetiler.TestUtils.newLineString;
+import static com.onthegomap.planetiler.TestUtils.newPoint;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.onthegomap.planetiler.FeatureMerge;
+import com.onthegomap.planetiler.VectorTile;
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.geo.TileCoord;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class NameSplitTest {
+
+  private static Map<String, List<VectorTile.Feature>> tile() {
+    return Map.of("roads", List.of(
+      new VectorTile.Feature("roads", 1, VectorTile.encodeGeometry(newLineString(10, 20, 30, 40)),
+        new HashMap<>(Map.of("kind", "major_road", "name", "Rue", "name:de", "Straße", "pgf:name:hi", "x"))),
+      new VectorTile.Feature("roads", 2, VectorTile.encodeGeometry(newLineString(10, 20, 30, 40)),
+        new HashMap<>(Map.of("kind", "minor_road")))
+    ));
+  }
+
+  @Test
+  void testAllKeepsTile() throws GeometryException {
+    var layers = tile();
+    assertSame(layers, new NameSplit(NameSplit.Mode.ALL).postProcessTile(TileCoord.ofXYZ(0, 0, 0), layers));
+  }
+
+  @Test
+  void testBase() throws GeometryException {
+    var result = new NameSplit(NameSplit.Mode.BASE).postProcessTile(TileCoord.ofXYZ(0, 0, 0), tile());
+
+    assertEquals(2, result.get("roads").size());
+    assertEquals(Map.of("kind", "major_road", "name", "Rue", "name_key", 0), result.get("roads").getFirst().tags());
+    // features without localized names need no join key
+    assertEquals(Map.of("kind", "minor_road"), result.get("roads").get(1).tags());
+  }
+
+  @Test
+  void testLocalized() throws GeometryException {
+    var result = new NameSplit(NameSplit.Mode.LOCALIZED).postProcessTile(TileCoord.ofXYZ(0, 0, 0), tile());
+
+    assertEquals(1, result.get("roads").size());
+    var feature = result.get("roads").getFirst();
+    assertEquals(1, feature.id());
+    assertEquals(Map.of("name:de", "Straße", "pgf:name:hi", "x", "name_key", 0), feature.tags());
+    assertEquals(newPoint(10, 20), feature.geometry().decode());
+  }
+
+  @Test
+  void testLocalizedDropsEmptyLayers() throws GeometryException {
+    var layers = Map.of("earth", List.of(
+      new VectorTile.Feature("earth", 1, VectorTile.encodeGeometry(newPoint(1, 1)),
+        new HashMap<>(Map.of("kind", "earth")))));
+
+    assertTrue(new NameSplit(NameSplit.Mode.LOCALIZED).postProcessTile(TileCoord.ofXYZ(0, 0, 0), layers).isEmpty());
+  }
+
+  // the localized names of each base feature, found through the join key
+  private static List<Object> join(List<VectorTile.Feature> base, List<VectorTile.Feature> localized) {
+    Map<Object, Object> names = new HashMap<>();
+    for (var feature : localized) {
+      assertNull(names.put(feature.tags().get(NameSplit.JOIN_KEY), feature.tags().get("name:de")));
+    }
+    List<Object> joined = new ArrayList<>();
+    for (var feature : base) {
+      joined.add(names.get(feature.tags().get(NameSplit.JOIN_KEY)));
+    }
+    return joined;
+  }
+
+  @Test
+  void testJoinKeyWithSharedAndMissingIds() throws GeometryException {
+    // a way and a relation with the same ID, and a feature without one
+    Supplier<Map<String, List<VectorTile.Feature>>> tile = () -> Map.of("pois", List.of(
+      new VectorTile.Feature("pois", 7, VectorTile.encodeGeometry(newPoint(1, 1)),
+        new HashMap<>(Map.of("kind", "park", "name:de", "Park"))),
+      new VectorTile.Feature("pois", 7, VectorTile.encodeGeometry(newPoint(2, 2)),
+        new HashMap<>(Map.of("kind", "school", "name:de", "Schule"))),
+      new VectorTile.Feature("pois", 0, VectorTile.encodeGeometry(newPoint(3, 3)),
+        new HashMap<>(Map.of("kind", "peak", "name:de", "Gipfel")))
+    ));
+
+    var base = new NameSplit(NameSplit.Mode.BASE).postProcessTile(TileCoord.ofXYZ(0, 0, 0), tile.get());
+    var localized = new NameSplit(NameSplit.Mode.LOCALIZED).postProcessTile(TileCoord.ofXYZ(0, 0, 0), tile.get());
+
+    assertEquals(3, localized.get("pois").size());
+    assertEquals(List.of("Park", "Schule", "Gipfel"), join(base.get("pois"), localized.get("pois")));
+  }
+
+  @Test
+  void testJoinKeyWithMergedFeatures() throws GeometryException {
+    // after merging, the joined line keeps the ID of its first part, which another line has as well
+    Supplier<Map<String, List<VectorTile.Feature>>> tile = () -> {
+      try {
+        return Map.of("roads", FeatureMerge.mergeLineStrings(List.of(
+          new VectorTile.Feature("roads", 1, VectorTile.encodeGeometry(newLineString(10, 10, 20, 10)),
+            new HashMap<>(Map.of("kind", "major_road", "name:de", "Hauptstraße"))),
+          new VectorTile.Feature("roads", 2, VectorTile.encodeGeometry(newLineString(20, 10, 30, 10)),
+            new HashMap<>(Map.of("kind", "major_road", "name:de", "Hauptstraße"))),
+          new VectorTile.Feature("roads", 1, VectorTile.encodeGeometry(newLineString(10, 50, 30, 50)),
+            new HashMap<>(Map.of("kind", "minor_road", "name:de", "Nebenstraße")))
+        ), 0, 0, 4));
+      } catch (GeometryException e) {
+        throw new IllegalStateException(e);
+      }
+    };
+
+    var base = new NameSplit(NameSplit.Mode.BASE).postProcessTile(TileCoord.ofXYZ(0, 0, 0), tile.get());
+    var localized = new NameSplit(NameSplit.Mode.LOCALIZED).postProcessTile(TileCoord.ofXYZ(0, 0, 0), tile.get());
+
+    assertEquals(2, base.get("roads").size());
+    assertEquals(List.of(1L, 1L), base.get("roads").stream().map(VectorTile.Feature::id).toList());
+    List<Object> expected = new ArrayList<>();
+    for (var feature : base.get("roads")) {
+      expected.add("major_road".equals(feature.tags().get("kind")) ? "Hauptstraße" : "Nebenstraße");
+    }
+    assertEquals(expected, join(base.get("roads"), localized.get("roads")));
+  }
+}
@@ -0,0 +1,77 @@
+package com.protomaps.basemap.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class ClusterShaperTest {
+
+  private static List<String> clusters(String text) {
+    List<String> clusters = new ArrayList<>();
+    for (int start = 0; start < text.length();) {
+      int end = ClusterShaper.clusterEnd(text, start);
+      clusters.add(text.substring(start, end));
+      start = end;
+    }
+    return clusters;
+  }
+
+  @Test
+  void testClusters() {
+    assertEquals(List.of("का", "ठ", "मा", "डौँ"), clusters("काठमाडौँ"));
+    // conjuncts joined by a virama
+    assertEquals(List.of("क्ष", "त्रि", "य"), clusters("क्षत्रिय"));
+    // a virama before a space doesn't join the next word
+    assertEquals(List.of("क्", " ", "क"), clusters("क् क"));
+    assertEquals(List.of("B", "e", "r", "l", "i", "n"), clusters("Berlin"));
+  }
+
+  @Test
+  void testReadTable() throws IOException {
+    var table = ClusterShaper.readTable(new ByteArrayInputStream(
+      "cluster,codepoints\nका,63736 63743\n".getBytes(StandardCharsets.UTF_8)));
+    assertEquals(Map.of("का", new String(Character.toChars(63736)) + new String(Character.toChars(63743))), table);
+  }
+
+  @Test
+  void testEncodeMatchesGlyphLayout() {
+    FontRegistry fontRegistry = FontRegistry.getInstance();
+    Path cwd = Path.of("").toAbsolutePath();
+    Path pathFromRoot = Path.of("tiles", "src", "test", "resources", "pgf-encoding-fixture.zip");
+    fontRegistry.setZipFilePath(cwd.resolveSibling(pathFromRoot).toString());
+    fontRegistry.loadFontBundle("NotoSansDevanagari-Regular", "1", "Devanagari");
+
+    var font = fontRegistry.getFont("Devanagari");
+    var encoding = fontRegistry.getEncoding("Devanagari");
+    var shaper = new ClusterShaper(font, encoding, Map.of());
+    for (String text : List.of("काठमाडौँ", "क्षत्रिय", "नेपाल")) {
+      assertEquals(TextEngine.encode(text, font, encoding), shaper.encode(text));
+    }
+  }
+
+  @Test
+  void testLearnedClustersAreBounded() {
+    FontRegistry fontRegistry = FontRegistry.getInstance();
+    Path cwd = Path.of("").toAbsolutePath();
+    Path pathFromRoot = Path.of("tiles", "src", "test", "resources", "pgf-encoding-fixture.zip");
+    fontRegistry.setZipFilePath(cwd.resolveSibling(pathFromRoot).toString());
+    fontRegistry.loadFontBundle("NotoSansDevanagari-Regular", "1", "Devanagari");
+
+    var font = fontRegistry.getFont("Devanagari");
+    var encoding = fontRegistry.getEncoding("Devanagari");
+    var shaper = new ClusterShaper(font, encoding, Map.of(), 16);
+    for (int cp = 0x0915; cp <= 0x0939; cp++) {
+      String text = new String(Character.toChars(cp));
+      assertEquals(TextEngine.encode(text, font, encoding), shaper.encode(text));
+    }
+    assertTrue(shaper.size() <= 16);
+  }
+}
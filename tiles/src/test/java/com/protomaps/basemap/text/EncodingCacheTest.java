@@ -0,0 +1,160 @@
+package com.protomaps.basemap.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EncodingCacheTest {
+
+  @TempDir
+  Path tmpDir;
+
+  @Test
+  void testEncodesOnce() {
+    var cache = new EncodingCache("a", 100);
+    var calls = new AtomicInteger();
+
+    assertEquals("ABC", cache.get("abc", text -> {
+      calls.incrementAndGet();
+      return text.toUpperCase();
+    }));
+    assertEquals("ABC", cache.get("abc", text -> {
+      calls.incrementAndGet();
+      return text.toUpperCase();
+    }));
+
+    assertEquals(1, calls.get());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  void testBounded() {
+    var cache = new EncodingCache("a", 16);
+    for (int i = 0; i < 1000; i++) {
+      cache.get(Integer.toString(i), String::toUpperCase);
+    }
+    cache.get("0", String::toUpperCase);
+
+    assertEquals(0, cache.hits());
+    assertEquals(1001, cache.misses());
+  }
+
+  @Test
+  void testSaveAndLoad() throws IOException {
+    Path path = tmpDir.resolve("pgf.cache");
+    var cache = new EncodingCache("a", 100);
+    cache.get("काठमाडौँ", text -> "encoded");
+    cache.get("", text -> "empty");
+    cache.save(path);
+
+    var next = new EncodingCache("a", 100);
+    next.load(path);
+    assertEquals("encoded", next.get("काठमाडौँ", text -> "wrong"));
+    assertEquals("empty", next.get("", text -> "wrong"));
+    assertEquals("other", next.get("other", text -> "other"));
+    assertEquals(2, next.hits());
+
+    // entries of the loaded file are written again
+    next.save(path);
+    var third = new EncodingCache("a", 100);
+    third.load(path);
+    assertEquals("encoded", third.get("काठमाडौँ", text -> "wrong"));
+    assertEquals("other", third.get("other", text -> "wrong"));
+  }
+
+  @Test
+  void testIgnoresOtherFingerprint() throws IOException {
+    Path path = tmpDir.resolve("pgf.cache");
+    var cache = new EncodingCache("a", 100);
+    cache.get("text", text -> "encoded");
+    cache.save(path);
+
+    var other = new EncodingCache("b", 100);
+    other.load(path);
+    assertEquals("new", other.get("text", text -> "new"));
+    assertEquals(0, other.hits());
+  }
+
+  @Test
+  void testLoadMissingFile() throws IOException {
+    var cache = new EncodingCache("a", 100);
+    cache.load(tmpDir.resolve("missing"));
+    assertEquals("x", cache.get("text", text -> "x"));
+  }
+
+  @Test
+  void testIgnoresCorruptHeader() throws IOException {
+    Path path = tmpDir.resolve("pgf.cache");
+    var cache = new EncodingCache("a", 100);
+    cache.get("text", text -> "encoded");
+    cache.save(path);
+    byte[] bytes = Files.readAllBytes(path);
+    // magic (8 bytes), fingerprint length, one fingerprint char, entry count, slot count
+    int slotsOffset = 8 + 4 + 2 + 4;
+
+    for (int slots : new int[]{0, 3, -4, 1 << 30}) {
+      ByteBuffer.wrap(bytes).putInt(slotsOffset, slots);
+      Files.write(path, bytes);
+      var corrupt = new EncodingCache("a", 100);
+      corrupt.load(path);
+      assertEquals("new", corrupt.get("text", text -> "new"));
+    }
+
+    ByteBuffer.wrap(bytes).putInt(8, Integer.MAX_VALUE);
+    Files.write(path, bytes);
+    var corrupt = new EncodingCache("a", 100);
+    corrupt.load(path);
+    assertEquals("new", corrupt.get("text", text -> "new"));
+  }
+
+  @Test
+  void testIgnoresTruncatedFile() throws IOException {
+    Path path = tmpDir.resolve("pgf.cache");
+    var cache = new EncodingCache("a", 100);
+    cache.get("text", text -> "encoded");
+    cache.save(path);
+    byte[] bytes = Files.readAllBytes(path);
+    Files.write(path, Arrays.copyOf(bytes, 8 + 4 + 2 + 6));
+
+    var truncated = new EncodingCache("a", 100);
+    truncated.load(path);
+    assertEquals("new", truncated.get("text", text -> "new"));
+  }
+
+  @Test
+  void testCorruptEntriesAreMisses() throws IOException {
+    Path path = tmpDir.resolve("pgf.cache");
+    var cache = new EncodingCache("a", 100);
+    cache.get("text", text -> "encoded");
+    cache.save(path);
+    byte[] bytes = Files.readAllBytes(path);
+    // magic, fingerprint length, one fingerprint char, entry count, slot count, two slots, then the entry
+    int entryOffset = 8 + 4 + 2 + 4 + 4 + 2 * 4;
+
+    for (int keyLength : new int[]{-1, Integer.MAX_VALUE, bytes.length}) {
+      ByteBuffer.wrap(bytes).putInt(entryOffset + 4, keyLength);
+      Files.write(path, bytes);
+      var corrupt = new EncodingCache("a", 100);
+      corrupt.load(path);
+      assertEquals("new", corrupt.get("text", text -> "new"));
+      // entries after the corrupt one are dropped when saving
+      corrupt.save(tmpDir.resolve("saved.cache"));
+    }
+
+    // a value running past the end of the file
+    ByteBuffer.wrap(bytes).putInt(entryOffset + 4, 4);
+    ByteBuffer.wrap(bytes).putInt(entryOffset + 8 + 4 * 2, 1000);
+    Files.write(path, bytes);
+    var corrupt = new EncodingCache("a", 100);
+    corrupt.load(path);
+    assertEquals("new", corrupt.get("text", text -> "new"));
+  }
+}
@@ -1,13 +1,22 @@
 package com.protomaps.basemap.text;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class FontRegistryTest {
+
+  @TempDir
+  Path tmpDir;
+
   @Test
   void testLoadFontBundle() {
     FontRegistry fontRegistry = FontRegistry.getInstance();
@@ -32,8 +41,42 @@ class FontRegistryTest {
     String glyphKey = FontRegistry.getGlyphKey(66, 0, 0, 4, 0);
     assertEquals("66|0|0|4|0", glyphKey);
 
-    Map<String, Integer> encoding = fontRegistry.getEncoding(script);
-    assertEquals(63743, encoding.get(glyphKey));
+    GlyphEncoding encoding = fontRegistry.getEncoding(script);
+    assertEquals(63743, encoding.get(66, 0, 0, 4, 0));
+
+  }
+
+  @Test
+  void testEncodingCacheDir() throws IOException {
+    FontRegistry fontRegistry = FontRegistry.getInstance();
+    Path cwd = Path.of("").toAbsolutePath();
+    Path pathFromRoot = Path.of("tiles", "src", "test", "resources", "pgf-encoding-fixture.zip");
+    fontRegistry.setZipFilePath(cwd.resolveSibling(pathFromRoot).toString());
+    try {
+      fontRegistry.setEncodingCacheDir(tmpDir);
+      fontRegistry.loadFontBundles(List.of(new FontRegistry.BundleSpec("NotoSansDevanagari-Regular", "1",
+        "Devanagari")));
+      Path binary = tmpDir.resolve("pgf-encoding-fixture-NotoSansDevanagari-Regular-v1.bin");
+      assertTrue(Files.exists(binary));
+      long written = Files.getLastModifiedTime(binary).toMillis();
+
+      // loaded from the binary file the second time
+      fontRegistry.loadFontBundle("NotoSansDevanagari-Regular", "1", "Devanagari");
+      assertEquals(written, Files.getLastModifiedTime(binary).toMillis());
+      GlyphEncoding encoding = fontRegistry.getEncoding("Devanagari");
+      assertEquals(900, encoding.size());
+      assertEquals(63743, encoding.get(66, 0, 0, 4, 0));
+    } finally {
+      fontRegistry.setEncodingCacheDir(null);
+    }
+  }
 
+  @Test
+  void testParseInts() {
+    int[] fields = new int[3];
+    FontRegistry.parseInts("1, -2 ,3", fields);
+    assertArrayEquals(new int[]{1, -2, 3}, fields);
+    assertThrows(NumberFormatException.class, () -> FontRegistry.parseInts("1,2", fields));
+    assertThrows(NumberFormatException.class, () -> FontRegistry.parseInts("1,x,3", fields));
   }
 }
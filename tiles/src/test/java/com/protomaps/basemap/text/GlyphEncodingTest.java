@@ -0,0 +1,60 @@
+package com.protomaps.basemap.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class GlyphEncodingTest {
+
+  @Test
+  void testGet() {
+    var encoding = new GlyphEncoding();
+    encoding.put(66, 0, 0, 4, 0, 63743);
+    encoding.put(66, -7, -4, 20, 0, 63742);
+    encoding.put(65535, -2048, 2047, -1, 1, 63741);
+
+    assertEquals(3, encoding.size());
+    assertEquals(63743, encoding.get(66, 0, 0, 4, 0));
+    assertEquals(63742, encoding.get(66, -7, -4, 20, 0));
+    assertEquals(63741, encoding.get(65535, -2048, 2047, -1, 1));
+    assertEquals(GlyphEncoding.MISSING, encoding.get(66, 0, 0, 5, 0));
+    assertEquals(GlyphEncoding.MISSING, encoding.get(67, 0, 0, 4, 0));
+    // the metrics of a missing glyph may not fit into a key at all
+    assertEquals(GlyphEncoding.MISSING, encoding.get(66, 4096, 0, 4, 0));
+    assertEquals(GlyphEncoding.MISSING, encoding.get(-1, 0, 0, 4, 0));
+  }
+
+  @Test
+  void testOutOfRange() {
+    var encoding = new GlyphEncoding();
+    assertThrows(IllegalArgumentException.class, () -> encoding.put(65536, 0, 0, 4, 0, 63743));
+    assertThrows(IllegalArgumentException.class, () -> encoding.put(66, 0, 0, 2048, 0, 63743));
+  }
+
+  @Test
+  void testWriteAndRead() throws IOException {
+    var encoding = new GlyphEncoding();
+    encoding.put(66, 0, 0, 4, 0, 63743);
+    encoding.put(65535, -2048, 2047, -1, 1, 63741);
+    var bytes = new ByteArrayOutputStream();
+    encoding.writeTo(new DataOutputStream(bytes));
+
+    var read = GlyphEncoding.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), bytes.size());
+    assertEquals(2, read.size());
+    assertEquals(63741, read.get(65535, -2048, 2047, -1, 1));
+  }
+
+  @Test
+  void testReadRejectsCountBeyondLength() throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    new DataOutputStream(bytes).writeInt(Integer.MAX_VALUE);
+    assertThrows(IOException.class,
+      () -> GlyphEncoding.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), bytes.size()));
+  }
+}
@@ -1,11 +1,13 @@
 package com.protomaps.basemap.text;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import java.awt.Font;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.regex.Pattern;
 import org.junit.jupiter.api.Test;
 
 class TextEngineTest {
@@ -25,7 +27,7 @@ class TextEngineTest {
 
     String text = "काठमाडौँ";
     Font font = fontRegistry.getFont(script);
-    Map<String, Integer> encoding = fontRegistry.getEncoding(script);
+    GlyphEncoding encoding = fontRegistry.getEncoding(script);
 
     String textEncoded = TextEngine.encode(text, font, encoding);
 
@@ -85,4 +87,31 @@ class TextEngineTest {
     assertEquals("తెలుగు Hello!", segments.get(0));
 
   }
+
+  @Test
+  void testSegmentMatchesRegex() {
+    List<String> scripts = List.of("Devanagari", "Bengali");
+    String regex = "[\\p{InDevanagari}\\p{InBengali}]+|[^\\p{InDevanagari}\\p{InBengali}]+";
+    List<String> texts = List.of(
+      "काठमाडौँ ঢাকা",
+      "Berlin",
+      "\uD840\uDC00काठमाडौँ\uD840\uDC01",
+      "ঢাকা!काठमाडौँ",
+      "\u0900"
+    );
+    for (String text : texts) {
+      List<String> expected = new ArrayList<>();
+      var matcher = Pattern.compile(regex).matcher(text);
+      while (matcher.find()) {
+        expected.add(matcher.group());
+      }
+      assertEquals(expected, TextEngine.segment(text, scripts));
+    }
+  }
+
+  @Test
+  void testEncodeRegisteredScriptsWithoutRegisteredScript() {
+    String text = "Berlin";
+    assertSame(text, TextEngine.encodeRegisteredScripts(text));
+  }
 }